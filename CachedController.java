@@ -0,0 +1,145 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * A loaded controller class together with method handles for its constructor and
+ * the methods the simulator calls.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+public class CachedController {
+    private static final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+    private final Class<?> type;
+    private final ControllerLoader loader; // null for a class from the class path
+    private final MethodHandle constructor;
+    private final MethodHandle controlRobot;
+    private final MethodHandle reset; // null if the controller has no reset method
+    private final MethodHandle planMoves; // null if the controller only moves one square per poll
+    private final boolean ownWatchdog; // The controller keeps a PollWatchdog of its own
+
+    /**
+     * Constructs a {@code CachedController} and looks up its method handles.
+     *
+     * @param type the controller class
+     * @param loader the loader that defined it, or {@code null} for the class path
+     * @throws ReflectiveOperationException if the class has no public constructor
+     *         or no {@code controlRobot(IRobot)} method
+     */
+    CachedController(Class<?> type, ControllerLoader loader) throws ReflectiveOperationException {
+        this.type = type;
+        this.loader = loader;
+        constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Object.class));
+        controlRobot = lookup.findVirtual(type, "controlRobot", MethodType.methodType(void.class, IRobot.class))
+                .asType(MethodType.methodType(void.class, Object.class, IRobot.class));
+        reset = find(type, "reset", MethodType.methodType(void.class));
+        planMoves = find(type, "planMoves", MethodType.methodType(int[].class, IRobot.class));
+        ownWatchdog = find(type, "isOverrun", MethodType.methodType(boolean.class)) != null;
+    }
+
+    /**
+     * Wraps a controller class loaded from the class path.
+     *
+     * @param type the controller class
+     * @return the controller
+     * @throws ReflectiveOperationException if the class is not a controller
+     */
+    public static CachedController of(Class<?> type) throws ReflectiveOperationException {
+        return new CachedController(type, null);
+    }
+
+    /**
+     * Looks up an optional public method and changes it to take any controller.
+     *
+     * @param type the controller class
+     * @param name the name of the method
+     * @param methodType the type of the method
+     * @return the method handle, or {@code null} if the controller has no such method
+     */
+    private static MethodHandle find(Class<?> type, String name, MethodType methodType) {
+        try {
+            return lookup.findVirtual(type, name, methodType).asType(methodType.insertParameterTypes(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the class files this controller was defined from are unchanged.
+     *
+     * @return {@code true} if the loaded classes can still be used
+     */
+    boolean isCurrent() {
+        return loader == null || loader.isCurrent();
+    }
+
+    /**
+     * Returns the controller class.
+     *
+     * @return the class
+     */
+    public Class<?> getType() { return type; }
+
+    /**
+     * Creates a new instance of the controller.
+     *
+     * @return the new controller
+     * @throws Throwable anything the constructor throws
+     */
+    public Object newInstance() throws Throwable {
+        return (Object) constructor.invokeExact();
+    }
+
+    /**
+     * Polls a controller for its next move.
+     *
+     * @param controller the controller instance
+     * @param robot the robot it controls
+     * @throws Throwable anything the controller throws
+     */
+    public void controlRobot(Object controller, IRobot robot) throws Throwable {
+        controlRobot.invokeExact(controller, robot);
+    }
+
+    /**
+     * Tells a controller a new run is starting, if it wants to know.
+     *
+     * @param controller the controller instance
+     * @throws Throwable anything the controller throws
+     */
+    public void reset(Object controller) throws Throwable {
+        if (reset != null) {
+            reset.invokeExact(controller);
+        }
+    }
+
+    /**
+     * Returns whether the controller can plan several moves at once.
+     *
+     * @return {@code true} if the controller has a {@code planMoves(IRobot)} method
+     */
+    public boolean canPlan() { return planMoves != null; }
+
+    /**
+     * Returns whether the controller keeps to a poll budget by itself, so a driver
+     * should not put a {@link PollWatchdog} in front of it.
+     *
+     * @return {@code true} if the controller has an {@code isOverrun()} method
+     */
+    public boolean hasWatchdog() { return ownWatchdog; }
+
+    /**
+     * Asks a controller for a plan of moves.
+     *
+     * @param controller the controller instance
+     * @param robot the robot it controls
+     * @return the absolute headings to take, or {@code null} if the controller should be polled
+     * @throws Throwable anything the controller throws
+     */
+    public int[] planMoves(Object controller, IRobot robot) throws Throwable {
+        return (int[]) planMoves.invokeExact(controller, robot);
+    }
+}
@@ -0,0 +1,83 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.util.Arrays;
+
+/**
+ * A route kept as runs of squares in one heading, one run for every turn, instead of
+ * one entry per junction. Each run is packed into an int as (length << 2 | heading),
+ * heading 0 = NORTH to 3 = WEST. A cursor walks the runs as the robot replays the
+ * route, so replay only does work at the turns and the route takes one int per turn.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class CompressedRoute {
+    private final int start; // Map index of the square the route starts on
+    private final int[] runs;
+    private int run; // Run the cursor is in
+    private int step; // Squares of that run already taken
+    private int cell; // Square the cursor expects the robot to be on
+
+    /**
+     * Constructs a new {@code CompressedRoute} from packed runs.
+     *
+     * @param start the map index of the first square
+     * @param runs the runs, each packed as (length << 2 | heading)
+     */
+    private CompressedRoute(int start, int[] runs) {
+        this.start = start;
+        this.runs = runs;
+        rewind();
+    }
+
+    /**
+     * Compresses a route into runs between its turns.
+     *
+     * @param map the known map the route goes through
+     * @param squares the map indices of the squares on the route, ending at the target
+     * @return the compressed route
+     */
+    public static CompressedRoute encode(MazeMap map, int[] squares) {
+        int[] runs = new int[Math.max(1, squares.length - 1)];
+        int count = 0;
+        for (int i = 0; i < squares.length - 1; i++) {
+            int heading = map.directionTo(squares[i], squares[i + 1]);
+            if (count > 0 && (runs[count - 1] & 3) == heading) {
+                runs[count - 1] += 4; // One more square in the same heading
+            } else {
+                runs[count++] = (1 << 2) | heading;
+            }
+        }
+        return new CompressedRoute(squares[0], Arrays.copyOf(runs, count));
+    }
+
+    /**
+     * Moves the cursor back to the start of the route for a new run.
+     */
+    public void rewind() {
+        run = 0;
+        step = 0;
+        cell = start;
+    }
+
+    /**
+     * Returns the heading the route takes from a square and moves the cursor on one
+     * square. Only the square the cursor expects gives a heading, if the robot is
+     * anywhere else it has left the route and the cursor stays where it is.
+     *
+     * @param at the map index of the square the robot is on
+     * @param map the known map the route goes through
+     * @return the absolute heading to take, or -1 if the robot is not on the route
+     */
+    public int next(int at, MazeMap map) {
+        if (at != cell || run >= runs.length) {
+            return -1;
+        }
+        int heading = runs[run] & 3;
+        cell = map.neighbour(cell, heading);
+        if (++step == runs[run] >>> 2) {
+            run++;
+            step = 0;
+        }
+        return heading + IRobot.NORTH;
+    }
+}
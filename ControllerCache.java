@@ -0,0 +1,51 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loads controllers from their class files once and hands the same class and method
+ * handles out again until one of the class files really changes.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//The simulator's AdaptiveClassLoader reads a controller's class files again and defines
+//new classes on every reload, even when nothing was recompiled. Here every controller
+//gets its own ControllerLoader that reads the class files from the controller's folder,
+//so Ex1, Ex3 and GrandeFinale can each have their own RobotData, and remembers which files
+//it defined and a CRC32 of their bytes. Asking for the controller again only looks at the
+//size and time of those files, the bytes are only read and hashed again when one of them
+//differs, and the classes are only defined again when a hash differs. The constructor and
+//the controller methods are kept as method handles so they are not looked up every time
+
+public class ControllerCache {
+    private static final ConcurrentHashMap<String, CachedController> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the controller in a class file, loading it only if it has not been
+     * loaded before or one of its class files has changed since.
+     *
+     * @param classFile the controller's class file
+     * @return the loaded controller
+     * @throws IOException if a class file cannot be read
+     * @throws ReflectiveOperationException if the class is not a controller
+     */
+    public static CachedController load(File classFile) throws IOException, ReflectiveOperationException {
+        String key = classFile.getCanonicalPath();
+        CachedController cached = cache.get(key);
+        if (cached != null && cached.isCurrent()) {
+            return cached;
+        }
+        synchronized (ControllerCache.class) {
+            cached = cache.get(key);
+            if (cached == null || !cached.isCurrent()) {
+                String name = classFile.getName().replaceFirst("\\.class$", "");
+                ControllerLoader loader = new ControllerLoader(classFile.getAbsoluteFile().getParentFile());
+                cached = new CachedController(Class.forName(name, true, loader), loader);
+                cache.put(key, cached);
+            }
+            return cached;
+        }
+    }
+}
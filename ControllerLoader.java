@@ -0,0 +1,111 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Defines classes from the class files in one folder, looking there before asking
+ * the class path, and remembers every file it defined a class from so it can tell
+ * when they have changed.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+public class ControllerLoader extends ClassLoader {
+    private final File folder;
+    private final ArrayList<File> files = new ArrayList<>();
+    private final ArrayList<long[]> stamps = new ArrayList<>(); // {length, last modified, CRC32}
+
+    /**
+     * Constructs a {@code ControllerLoader} for a folder of class files.
+     *
+     * @param folder the folder the controller was compiled into
+     */
+    ControllerLoader(File folder) {
+        super(ControllerLoader.class.getClassLoader());
+        this.folder = folder;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                File file = new File(folder, name.replace('.', File.separatorChar) + ".class");
+                if (file.isFile()) {
+                    loaded = define(name, file);
+                } else {
+                    return super.loadClass(name, resolve);
+                }
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Defines a class from its class file and remembers the file.
+     *
+     * @param name the name of the class
+     * @param file the class file
+     * @return the defined class
+     * @throws ClassNotFoundException if the file cannot be read
+     */
+    private Class<?> define(String name, File file) throws ClassNotFoundException {
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            synchronized (files) {
+                files.add(file);
+                stamps.add(new long[]{bytes.length, file.lastModified(), crc(bytes)});
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    /**
+     * Returns whether every class file defined so far still has the same bytes.
+     * Files whose size and time are unchanged are trusted without reading them.
+     *
+     * @return {@code true} if no class file has changed
+     */
+    boolean isCurrent() {
+        synchronized (files) {
+            for (int i = 0; i < files.size(); i++) {
+                File file = files.get(i);
+                long[] stamp = stamps.get(i);
+                if (file.length() == stamp[0] && file.lastModified() == stamp[1]) {
+                    continue;
+                }
+                try {
+                    byte[] bytes = Files.readAllBytes(file.toPath());
+                    if (crc(bytes) != stamp[2]) {
+                        return false;
+                    }
+                    // Only touched, the bytes are the same
+                    stamp[0] = bytes.length;
+                    stamp[1] = file.lastModified();
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Works out the CRC32 of some class bytes.
+     *
+     * @param bytes the bytes
+     * @return the checksum
+     */
+    private static long crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Fills in the dead ends of a {@link MazeMap}. Any discovered square with only one
+ * live exit cannot be on a route to the target, so it is sealed, which may leave
+ * the square next to it with only one live exit too. Those squares go on a work
+ * queue so every square is sealed at most once and the whole pass is linear in the
+ * number of discovered squares. On a perfect maze only the route to the target is
+ * left, on a loopy maze the loops that connect to it are left as well.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class DeadEndFiller {
+
+    /**
+     * Seals every dead end of the known map. The start and target are never sealed.
+     *
+     * @param map the squares discovered so far
+     * @param start the index of the start square
+     * @param target the index of the target square
+     * @return the number of squares that were sealed
+     */
+    public static int fill(MazeMap map, int start, int target) {
+        int n = map.size();
+        int[] queue = new int[n]; // squares are sealed as they are queued so each goes on once
+        int head = 0, tail = 0;
+        for (int cell = 0; cell < n; cell++) {
+            if (isDeadEnd(map, cell, start, target)) {
+                map.seal(cell);
+                queue[tail++] = cell;
+            }
+        }
+        while (head < tail) {
+            int cell = queue[head++];
+            // A sealed square still knows its way out, which is the only square that can change
+            for (int dir = 0; dir < 4; dir++) {
+                int next = map.openNeighbour(cell, dir);
+                if (next >= 0 && isDeadEnd(map, next, start, target)) {
+                    map.seal(next);
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * Returns whether a discovered square is a dead end that can be sealed.
+     *
+     * @param map the squares discovered so far
+     * @param cell the index of the square
+     * @param start the index of the start square
+     * @param target the index of the target square
+     * @return {@code true} if the square is unsealed, not the start or target and has at most one live exit
+     */
+    private static boolean isDeadEnd(MazeMap map, int cell, int start, int target) {
+        return cell != start && cell != target && map.isVisited(cell) && !map.isSealed(cell)
+                && map.liveExits(cell) <= 1;
+    }
+}
@@ -0,0 +1,254 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Records the absolute heading the robot ends up with after every poll so a run can
+ * be played again exactly with {@code ReplayPlayer}. Each heading is stored as the
+ * turn from the heading before it in 2 bits, four polls to a byte, so a corridor
+ * costs nothing but zero bits. The file starts with the seed of the robot's random
+ * choices, a fingerprint of the maze and the heading and number of polls of every
+ * run, the maze itself is saved next to it with {@link Maze#writeToFile(File, IRobot)}.
+ * The file is rewritten at the end of every run and every 65536 polls, so a run that
+ * never finishes is still saved.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class DecisionRecorder {
+    private static final int magic = 0x4d5a5243; // "MZRC"
+    private static final int savePeriod = 65536;
+    private final File file;
+    private final long seed;
+    private final long fingerprint;
+    private byte[] turns = new byte[1024];
+    private int polls = 0;
+    private int[] runPolls = new int[8]; // Polls in every run, the last one may be unfinished
+    private byte[] runHeadings = new byte[8]; // Heading every run started with, 0 = NORTH
+    private int runs = 0; // Runs started
+    private int lastHeading;
+    private int lastSave = 0;
+
+    /**
+     * Constructs a {@code DecisionRecorder}.
+     *
+     * @param file the file to save the recording in
+     * @param seed the seed of the robot's random choices
+     * @param fingerprint the fingerprint of the maze
+     */
+    private DecisionRecorder(File file, long seed, long fingerprint) {
+        this.file = file;
+        this.seed = seed;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Starts recording a robot and saves the maze it is in next to the recording.
+     *
+     * @param path the file to record to, or {@code null} to not record
+     * @param seed the seed of the robot's random choices
+     * @param robot the robot at the start of its first run
+     * @return the recorder, or {@code null} if nothing is recorded
+     */
+    public static DecisionRecorder start(String path, long seed, IRobot robot) {
+        if (path == null) {
+            return null;
+        }
+        File file = new File(path);
+        try {
+            robot.getMaze().writeToFile(mazeFile(file), robot);
+        } catch (Exception e) {
+            System.out.println("Could not save the maze, not recording: " + e.getMessage());
+            return null;
+        }
+        return new DecisionRecorder(file, seed, fingerprint(robot.getMaze()));
+    }
+
+    /**
+     * Returns the file the maze of a recording is saved in.
+     *
+     * @param recording the recording file
+     * @return the maze file next to it
+     */
+    public static File mazeFile(File recording) {
+        return new File(recording.getPath() + ".maze");
+    }
+
+    /**
+     * Works out a fingerprint of a maze from its size, its walls, its start and its
+     * finish, so a recording is never played in a different maze.
+     *
+     * @param maze the maze
+     * @return a 64 bit FNV-1a hash of the maze
+     */
+    public static long fingerprint(Maze maze) {
+        long hash = 0xcbf29ce484222325L;
+        int[] header = {maze.getWidth(), maze.getHeight(), maze.getStart().x, maze.getStart().y,
+                        maze.getFinish().x, maze.getFinish().y};
+        for (int value : header) {
+            hash = (hash ^ value) * 0x100000001b3L;
+        }
+        for (int y = 0; y < maze.getHeight(); y++) {
+            for (int x = 0; x < maze.getWidth(); x++) {
+                hash = (hash ^ (maze.getCellType(x, y) == Maze.WALL ? 1 : 0)) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Records one poll. The first poll after the start or the end of a run also
+     * starts a new run with the heading the robot had before it.
+     *
+     * @param before the absolute heading before the poll
+     * @param after the absolute heading after the poll
+     */
+    public void record(int before, int after) {
+        if (runs == 0 || runPolls[runs - 1] < 0) {
+            if (runs == runPolls.length) {
+                runPolls = Arrays.copyOf(runPolls, runs * 2);
+                runHeadings = Arrays.copyOf(runHeadings, runs * 2);
+            }
+            runHeadings[runs] = (byte) (before - IRobot.NORTH);
+            runPolls[runs++] = 0;
+            lastHeading = before;
+        }
+        if ((polls >> 2) == turns.length) {
+            turns = Arrays.copyOf(turns, turns.length * 2);
+        }
+        int turn = (after - lastHeading + 4) % 4;
+        lastHeading = after;
+        turns[polls >> 2] |= (byte) (turn << ((polls & 3) * 2));
+        polls++;
+        runPolls[runs - 1]++;
+        if (polls - lastSave >= savePeriod) {
+            save();
+        }
+    }
+
+    /**
+     * Marks the end of a run and saves the recording.
+     */
+    public void endRun() {
+        if (runs > 0 && runPolls[runs - 1] >= 0) {
+            save();
+            runPolls[runs - 1] = ~runPolls[runs - 1]; // Finished, the next poll starts a run
+        }
+    }
+
+    /**
+     * Writes the whole recording to its file.
+     */
+    private void save() {
+        lastSave = polls;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(magic);
+            out.writeLong(seed);
+            out.writeLong(fingerprint);
+            out.writeInt(runs);
+            for (int i = 0; i < runs; i++) {
+                out.writeByte(runHeadings[i]);
+                out.writeInt(getPolls(i));
+            }
+            out.write(turns, 0, (polls + 3) >> 2);
+        } catch (IOException e) {
+            System.out.println("Could not save the recording: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a recording back in.
+     *
+     * @param file the recording file
+     * @return the recording
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public static DecisionRecorder read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != magic) {
+                throw new IOException(file + " is not a recording");
+            }
+            DecisionRecorder recording = new DecisionRecorder(file, in.readLong(), in.readLong());
+            recording.runs = in.readInt();
+            recording.runPolls = new int[recording.runs];
+            recording.runHeadings = new byte[recording.runs];
+            for (int i = 0; i < recording.runs; i++) {
+                recording.runHeadings[i] = in.readByte();
+                recording.runPolls[i] = in.readInt();
+                recording.polls += recording.runPolls[i];
+            }
+            recording.turns = new byte[(recording.polls + 3) >> 2];
+            in.readFully(recording.turns);
+            return recording;
+        }
+    }
+
+    /**
+     * Returns the seed of the recorded robot's random choices.
+     *
+     * @return the seed
+     */
+    public long getSeed() { return seed; }
+
+    /**
+     * Returns the fingerprint of the recorded maze.
+     *
+     * @return the fingerprint
+     */
+    public long getFingerprint() { return fingerprint; }
+
+    /**
+     * Returns the number of runs in the recording, counting a last unfinished run.
+     *
+     * @return the number of runs
+     */
+    public int getRuns() { return runs; }
+
+    /**
+     * Returns the number of polls recorded in a run.
+     *
+     * @param run the run, counting from 0
+     * @return the number of polls
+     */
+    public int getPolls(int run) {
+        int count = runPolls[run];
+        return (count < 0) ? ~count : count;
+    }
+
+    /**
+     * Returns the absolute heading the robot had when a run started.
+     *
+     * @param run the run, counting from 0
+     * @return the heading
+     */
+    public int getStartHeading(int run) { return runHeadings[run] + IRobot.NORTH; }
+
+    /**
+     * Decodes every heading recorded in a run.
+     *
+     * @param run the run, counting from 0
+     * @return the absolute heading after every poll of the run
+     */
+    public int[] getHeadings(int run) {
+        int first = 0;
+        for (int i = 0; i < run; i++) {
+            first += getPolls(i);
+        }
+        int[] headings = new int[getPolls(run)];
+        int heading = getStartHeading(run);
+        for (int i = 0; i < headings.length; i++) {
+            int poll = first + i;
+            int turn = (turns[poll >> 2] >> ((poll & 3) * 2)) & 3;
+            heading = (heading - IRobot.NORTH + turn) % 4 + IRobot.NORTH;
+            headings[i] = heading;
+        }
+        return headings;
+    }
+}
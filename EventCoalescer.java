@@ -0,0 +1,268 @@
+import uk.ac.warwick.dcs.maze.AppLauncher;
+import uk.ac.warwick.dcs.maze.logic.EventBus;
+import uk.ac.warwick.dcs.maze.logic.IEvent;
+import uk.ac.warwick.dcs.maze.logic.IEventClient;
+import java.awt.Point;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Merges the per-step robot events the simulator sends to its GUI panels into
+ * frames drawn at a fixed rate, so a robot running flat out is not held up by
+ * the panels drawing every step.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//Every move of the robot is broadcast on the EventBus to every client one after another,
+//on the controller thread, so each step waits for MazeGridPanel and RobotControlPanel to
+//handle it. The EventBus is part of the simulator jar, but it keeps its clients in one
+//list that it walks on every broadcast. install() swaps that list for one that wraps
+//every client from the gui package as it is added. A wrapped client does not draw
+//ROBOT_RELOCATE and ROBOT_HEADING_CHANGED when they happen, they are only noted in a
+//buffer and the simulator carries on straight away. A Swing timer then passes the steps
+//held since the last frame on to the panels at a fixed frame rate. The grid is not redrawn
+//by region: MazeGridPanel answers a step by moving its robot icon and repainting just the
+//icon, and its paintComponent fills every square whatever the clip, so asking it to repaint
+//the squares a frame covered would cost a whole grid walk per frame. The saving is that the
+//icon is repainted once a frame instead of once a step, and the simulator never waits for the
+//panels. Any other event is queued behind the steps already held and a frame is drawn for it
+//at once, so the panels see every event in the order it was broadcast and all of them on the
+//event dispatch thread, as Swing expects.
+//Within a frame a square visited again and the latest heading move to where they last
+//happened, so the robot is drawn on its last square facing its last heading. The timer
+//runs from ROBOT_START until ROBOT_FINISHED or ROBOT_RESET, and stops when the last panel
+//is removed. The maze logic and the robot are not wrapped and still see every event as it
+//happens
+//With no panels added nothing is wrapped and the robot events cost nothing extra
+//Usage: java -Dmaze.fps=25 EventCoalescer [simulator arguments]
+
+public class EventCoalescer {
+    private static final String guiPackage = "uk.ac.warwick.dcs.maze.gui.";
+
+    /**
+     * Installs the coalescing client list and then starts the simulator as usual.
+     * The frame rate comes from the {@code maze.fps} property, 0 turns coalescing off.
+     *
+     * @param args the arguments passed on to the simulator
+     * @throws Exception if the EventBus cannot be changed
+     */
+    public static void main(String[] args) throws Exception {
+        int fps = Integer.getInteger("maze.fps", 25);
+        if (fps > 0) {
+            install(fps);
+        }
+        AppLauncher.main(args);
+    }
+
+    /**
+     * Replaces the EventBus client list with one that coalesces robot events for the
+     * GUI panels, whose frame timer runs while the robot does. Clients already added
+     * are wrapped as well.
+     * Must be called before the simulator starts moving the robot.
+     *
+     * @param fps how many frames to draw per second
+     * @throws ReflectiveOperationException if the EventBus is not laid out as expected
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void install(int fps) throws ReflectiveOperationException {
+        Field field = EventBus.class.getDeclaredField("clients");
+        field.setAccessible(true);
+        LinkedList<IEventClient> old = (LinkedList<IEventClient>) field.get(null);
+        if (old instanceof CoalescingList) {
+            return;
+        }
+        CoalescingList clients = new CoalescingList(fps);
+        for (IEventClient client : old) {
+            clients.add(client);
+        }
+        field.set(null, clients);
+    }
+
+    /**
+     * The client list handed to the EventBus. GUI clients are wrapped when added and
+     * can still be removed with the object they were added as.
+     */
+    static class CoalescingList extends LinkedList<IEventClient> {
+        private static final long serialVersionUID = 1L;
+        private final ArrayList<SnapshotClient> panels = new ArrayList<>();
+        private final Timer timer;
+
+        /**
+         * Constructs a new {@code CoalescingList} whose frame timer is stopped until
+         * the robot starts.
+         *
+         * @param fps how many frames to draw per second
+         */
+        CoalescingList(int fps) {
+            timer = new Timer(Math.max(1, 1000 / fps), e -> drawFrame());
+        }
+
+        @Override
+        public boolean add(IEventClient client) {
+            if (client.getClass().getName().startsWith(guiPackage)) {
+                SnapshotClient panel = new SnapshotClient(client, this);
+                synchronized (panels) {
+                    panels.add(panel);
+                }
+                return super.add(panel);
+            }
+            return super.add(client);
+        }
+
+        /**
+         * Passes the steps held since the last frame on to every wrapped panel.
+         * Called by the frame timer on the event dispatch thread.
+         */
+        void drawFrame() {
+            SnapshotClient[] current;
+            synchronized (panels) {
+                current = panels.toArray(new SnapshotClient[0]);
+            }
+            for (SnapshotClient panel : current) {
+                panel.flush();
+            }
+        }
+
+        /**
+         * Starts the frame timer while the robot is running and there are panels to
+         * draw, and stops it otherwise.
+         *
+         * @param running whether the robot is running
+         */
+        void setRunning(boolean running) {
+            synchronized (panels) {
+                if (running && !panels.isEmpty()) {
+                    timer.start();
+                } else {
+                    timer.stop();
+                }
+            }
+        }
+
+        /**
+         * Returns whether the frame timer is drawing frames.
+         *
+         * @return {@code true} while the timer runs
+         */
+        boolean isRunning() { return timer.isRunning(); }
+
+        @Override
+        public boolean remove(Object client) {
+            for (IEventClient c : this) {
+                if (c == client || (c instanceof SnapshotClient && ((SnapshotClient) c).target == client)) {
+                    synchronized (panels) {
+                        panels.remove(c);
+                        if (panels.isEmpty()) {
+                            timer.stop();
+                        }
+                    }
+                    return super.remove(c);
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sits between the EventBus and one GUI client. Events are written into a back
+     * buffer by whichever thread broadcasts them, and on the event dispatch thread the
+     * buffers are swapped and the front one is passed on in order, so the simulator
+     * never waits for the panel to draw. Between two other events the steps are one
+     * frame, keyed by square plus one key for the heading, so a square visited several
+     * times in one frame is only drawn once.
+     */
+    static class SnapshotClient implements IEventClient {
+        private static final Object headingKey = new Object(); // The frame's ROBOT_HEADING_CHANGED
+        final IEventClient target;
+        private final CoalescingList owner;
+        private ArrayDeque<Object> back = new ArrayDeque<>(); // Written by the broadcasting thread
+        private ArrayDeque<Object> front = new ArrayDeque<>(); // Passed on by the event dispatch thread
+        private LinkedHashMap<Object, IEvent> steps; // The last frame in back, null if it ends with another event
+        private boolean flushPosted = false;
+
+        /**
+         * Constructs a new {@code SnapshotClient} for a GUI client.
+         *
+         * @param target the client the events are meant for
+         * @param owner the list that runs the frame timer
+         */
+        SnapshotClient(IEventClient target, CoalescingList owner) {
+            this.target = target;
+            this.owner = owner;
+        }
+
+        /**
+         * Holds robot steps for the next frame and queues everything else behind them,
+         * drawing a frame for it straight away.
+         *
+         * @param event the event broadcast by the simulator
+         */
+        public void notify(IEvent event) {
+            int message = event.getMessage();
+            boolean step = (message == IEvent.ROBOT_RELOCATE && event.getData() instanceof Point)
+                    || message == IEvent.ROBOT_HEADING_CHANGED;
+            if (message == IEvent.ROBOT_START) {
+                owner.setRunning(true);
+            } else if (message == IEvent.ROBOT_FINISHED || message == IEvent.ROBOT_RESET) {
+                owner.setRunning(false);
+            }
+            boolean post;
+            synchronized (this) {
+                if (step) {
+                    if (steps == null) {
+                        steps = new LinkedHashMap<>();
+                        back.add(steps);
+                    }
+                    Object key = (message == IEvent.ROBOT_RELOCATE) ? event.getData() : headingKey;
+                    steps.remove(key); // Moved to the end, it is the latest now
+                    steps.put(key, event);
+                } else {
+                    steps = null;
+                    back.add(event);
+                }
+                // Steps wait for the timer unless it is stopped, any other event goes now
+                post = !flushPosted && (!step || !owner.isRunning());
+                flushPosted |= post;
+            }
+            if (post) {
+                if (SwingUtilities.isEventDispatchThread()) {
+                    flush();
+                } else {
+                    SwingUtilities.invokeLater(this::flush);
+                }
+            }
+        }
+
+        /**
+         * Swaps the buffers and passes on the events held since the last frame.
+         * Only called on the event dispatch thread.
+         */
+        @SuppressWarnings("unchecked")
+        void flush() {
+            synchronized (this) {
+                ArrayDeque<Object> swap = front;
+                front = back;
+                back = swap;
+                steps = null;
+                flushPosted = false;
+            }
+            for (Object held : front) {
+                if (held instanceof IEvent) {
+                    target.notify((IEvent) held);
+                } else {
+                    for (IEvent event : ((LinkedHashMap<Object, IEvent>) held).values()) {
+                        target.notify(event);
+                    }
+                }
+            }
+            front.clear();
+        }
+    }
+}
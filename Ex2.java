@@ -1,5 +1,10 @@
 import uk.ac.warwick.dcs.maze.logic.IRobot;
 import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 // Ex2 Preamble
 // This implementation will save space by 67%, this is because of instead of storing 
 // 3 objects in the junctionRecorder array we only store 1 so 1/3 the original space
@@ -7,6 +12,13 @@ import java.util.ArrayList;
 // to backtrack through junctions in reverse chronological order and after backtracking
 // we remove that junction from the stack which allows us to maintain the correct order
 // without needing location information
+// The stack no longer holds a JunctionRecorder object per junction, a heading only
+// needs 2 bits so 32 of them are packed into each long. Only the newest few chunks
+// of the stack stay in memory and the rest spill to a temp file, so a huge perfect
+// maze can no longer overflow a fixed size array
+// -Dmaze.spillChunks=<chunks> sets how many chunks of 8192 headings stay in memory, 4 by
+// default. The temp file is closed and deleted when the simulator resets the robot or a new
+// maze starts, and is deleted on exit if the JVM stops first
 
 /**
  * Controls a robot to explore a maze using various navigation strategies
@@ -28,6 +40,9 @@ public class Ex2 {
      */
     public void controlRobot(IRobot robot) {
         if ((robot.getRuns() == 0) && (pollRun == 0)){
+            if (robotData != null){
+                robotData.close();
+            }
             robotData = new RobotData();
             explorerMode = 1; 
         }
@@ -121,9 +136,13 @@ public class Ex2 {
      * Resets the junction counter in the associated {@link RobotData} instance.
      * This is called by the simulator when a new run of the maze begins so
      * that old junction information does not affect a fresh exploration.
+     * The spill file is closed too as none of its junctions will be read again.
      */
     public void reset() {
-        robotData.resetJunctionCounter();
+        if (robotData != null){
+            robotData.resetJunctionCounter();
+            robotData.close();
+        }
         explorerMode = 1;
     }
     
@@ -256,90 +275,226 @@ public class Ex2 {
 }
 
 /**
- * This is a data holder class that records information about a single junction:
- * the heading from which the robot was in when it first arrived at the junction.
- * No coordinates are stored to minimize memory usage.
+ * Stores the arrivedFrom heading of every junction that still has unexplored paths
+ * as a LIFO stack. A heading can only be NORTH, EAST, SOUTH or WEST so each one is
+ * packed into 2 bits, which fits 32 headings into every long.
+ * The longs are grouped into chunks and only a window of the newest chunks is kept
+ * in memory. Older chunks are spilled to a temp file and paged back in while the
+ * robot backtracks, so the depth of the stack is only limited by the disk and
+ * pushing or popping a junction never creates any new objects.
  */
-class JunctionRecorder { 
-    private int arrivedFrom;
+class RobotData {
+    private static final int headingsPerWord = 32;
+    private static final int wordsPerChunk = 256;
+    private static final int headingsPerChunk = headingsPerWord * wordsPerChunk;
+    private static final int bytesPerChunk = wordsPerChunk * 8;
+    private static final int defaultWindowChunks = Integer.getInteger("maze.spillChunks", 4);
+
+    private long[][] window; // chunk c is held in window[c % window.length]
+    private long junctionCounter;
+    private long firstResidentChunk; // every chunk below this one is on disk
+    private ByteBuffer spillBuffer;
+    private FileChannel spillChannel;
+    private File spillFile;
 
     /**
-     * Constructs a new {@code JunctionRecorder} with the supplied details.
-     *
-     * @param arrivedFrom the heading from which the robot first arrived
-     *                    at this junction
+     * Constructs a new {@code RobotData} instance that keeps the number of chunks
+     * given by the {@code maze.spillChunks} property in memory, 4 by default.
      */
-    public JunctionRecorder(int arrivedFrom) {
-        this.arrivedFrom = arrivedFrom;
+    public RobotData() {
+        this(defaultWindowChunks);
     }
 
     /**
-     * Returns the heading from which the robot first arrived at this junction.
+     * Constructs a new {@code RobotData} instance with an empty stack.
      *
-     * @return the arrival heading
+     * @param windowChunks how many chunks of headings are kept in memory
+     *                     before older ones spill to disk
      */
-    public int getArrivedFrom() { 
-        return arrivedFrom; 
+    public RobotData(int windowChunks) {
+        window = new long[Math.max(1, windowChunks)][wordsPerChunk];
+        spillBuffer = ByteBuffer.allocateDirect(bytesPerChunk);
+        junctionCounter = 0;
+        firstResidentChunk = 0;
     }
-}
 
-/**
- * Stores information about all junctions encountered during a run of the maze.
- * The class has an array of {@link JunctionRecorder} objects and a
- * counter indicating how many junctions have been recorded.
- */
-class RobotData {
-    private static int maxJunctions = 10000;
-    private static int junctionCounter; 
-    private JunctionRecorder[] junctions;
-    
     /**
      * Resets the junction counter back to zero. This is called when a new run
-     * of the maze begins so that recording starts from the first array element.
+     * of the maze begins so that recording starts from the bottom of the stack.
+     * The spill file is kept open until {@link #close()} is called.
      */
     public void resetJunctionCounter() {
         junctionCounter = 0;
+        firstResidentChunk = 0;
     }
 
-    /**
-     * Constructs a new {@code RobotData} instance with an empty array of
-     * {@link JunctionRecorder} objects and the junction counter reset to zero.
-     */
-    public RobotData() {
-        junctions = new JunctionRecorder[maxJunctions];
-        junctionCounter = 0;
-    }
-
-
     /**
      * Records a new junction with unexplored paths in the LIFO stack.
+     * If the in-memory window is full the oldest resident chunk is spilled first.
      *
      * @param arrivedFrom the heading from which the robot first arrived at the junction
      */
     public void recordJunction(int arrivedFrom){
-        junctions[junctionCounter] = new JunctionRecorder(arrivedFrom);
+        long chunk = junctionCounter / headingsPerChunk;
+        if (chunk - firstResidentChunk >= window.length){
+            spillChunk(firstResidentChunk);
+            firstResidentChunk++;
+        }
+        long[] words = window[slot(chunk)];
+        int offset = (int) (junctionCounter % headingsPerChunk);
+        int word = offset / headingsPerWord;
+        int shift = (offset % headingsPerWord) * 2;
+        long packed = (long) (arrivedFrom - IRobot.NORTH) & 3L;
+        words[word] = (words[word] & ~(3L << shift)) | (packed << shift);
         junctionCounter++;
     }
 
     /**
-     * Gets the most recent junction from the LIFO stackl; .
+     * Gets the most recent junction from the LIFO stack, paging its chunk back
+     * in from disk if it was spilled.
      *
      * @return the arrival heading of the most recent junction, or -1 if stack is empty
      */
     public int getMostRecentJunction(){
         if (junctionCounter > 0){
-            JunctionRecorder j = junctions[junctionCounter - 1];
-            return j.getArrivedFrom();
+            long index = junctionCounter - 1;
+            long[] words = residentChunk(index / headingsPerChunk);
+            int offset = (int) (index % headingsPerChunk);
+            int shift = (offset % headingsPerWord) * 2;
+            return (int) ((words[offset / headingsPerWord] >>> shift) & 3L) + IRobot.NORTH;
         }
         return -1;
     }
 
     /**
      * Removes the most recent junction from the LIFO stack after backtracking.
+     * If the new top of the stack was spilled its chunk is paged back in, so the
+     * top chunk is always resident and the next push never lands in a slot that
+     * still belongs to a newer chunk.
      */
     public void removeMostRecentJunction(){
         if (junctionCounter > 0){
             junctionCounter--;
+            if (junctionCounter > 0){
+                residentChunk((junctionCounter - 1) / headingsPerChunk);
+            }
+        }
+    }
+
+    /**
+     * Returns how many junctions are currently on the stack, including the ones
+     * that have been spilled to disk.
+     *
+     * @return the depth of the stack
+     */
+    public long getJunctionCounter() {
+        return junctionCounter;
+    }
+
+    /**
+     * Closes the spill file and deletes it. The stack must be empty, or hold only
+     * resident chunks, as nothing spilled can be read back afterwards. A later
+     * spill creates a new file.
+     */
+    public void close() {
+        if (spillChannel != null){
+            try {
+                spillChannel.close();
+            } catch (IOException e) {
+                // Nothing more can be read from it anyway
+            }
+            spillFile.delete();
+            spillChannel = null;
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Works out which slot of the in-memory window holds the given chunk.
+     *
+     * @param chunk the index of the chunk
+     * @return the index into {@code window}
+     */
+    private int slot(long chunk) {
+        return (int) (chunk % window.length);
+    }
+
+    /**
+     * Returns the words of a chunk, paging it back in from disk first if it was
+     * spilled. Every chunk above it is no longer on the stack, so it becomes the
+     * oldest resident chunk.
+     *
+     * @param chunk the index of the chunk
+     * @return the words of the chunk in the in-memory window
+     */
+    private long[] residentChunk(long chunk) {
+        if (chunk < firstResidentChunk){
+            loadChunk(chunk);
+            firstResidentChunk = chunk;
+        }
+        return window[slot(chunk)];
+    }
+
+    /**
+     * Writes a resident chunk out to its place in the spill file so its slot
+     * can be reused by a newer chunk.
+     *
+     * @param chunk the index of the chunk to spill
+     */
+    private void spillChunk(long chunk) {
+        long[] words = window[slot(chunk)];
+        spillBuffer.clear();
+        for (int i = 0; i < wordsPerChunk; i++){
+            spillBuffer.putLong(i * 8, words[i]);
+        }
+        try {
+            long position = chunk * bytesPerChunk;
+            while (spillBuffer.hasRemaining()){
+                position += spillChannel().write(spillBuffer, position);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not spill the junction stack to disk", e);
+        }
+    }
+
+    /**
+     * Reads a spilled chunk back from the spill file into its slot of the window.
+     *
+     * @param chunk the index of the chunk to page in
+     */
+    private void loadChunk(long chunk) {
+        long[] words = window[slot(chunk)];
+        spillBuffer.clear();
+        try {
+            long position = chunk * bytesPerChunk;
+            while (spillBuffer.hasRemaining()){
+                int read = spillChannel().read(spillBuffer, position);
+                if (read < 0){
+                    throw new IOException("Spill file is shorter than expected");
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not page the junction stack back in from disk", e);
+        }
+        for (int i = 0; i < wordsPerChunk; i++){
+            words[i] = spillBuffer.getLong(i * 8);
+        }
+    }
+
+    /**
+     * Returns the channel of the spill file, creating the temp file the first
+     * time the stack grows past the in-memory window.
+     *
+     * @return the channel used to read and write spilled chunks
+     * @throws IOException if the temp file cannot be created
+     */
+    private FileChannel spillChannel() throws IOException {
+        if (spillChannel == null){
+            spillFile = File.createTempFile("ex2-junctions", ".stack");
+            spillFile.deleteOnExit();
+            spillChannel = new RandomAccessFile(spillFile, "rw").getChannel();
         }
+        return spillChannel;
     }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+/**
+ * Counts the exits of every square of a bit packed maze a whole word of squares at a
+ * time, and marks the dead ends and the junctions, one bit per square.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//nonwallExits looks at one square through the robot, but analysing a whole known maze that
+//way means four lookups for every square. The kernels take the open squares as a bit set laid
+//out like the oracle's Bitboard, one row after another with a spare always closed column at
+//the end of every row, so the square to the east of the last one in a row and the square to the
+//west of the first one both land on a wall. The neighbours to the east and west of 64 squares
+//are then the word shifted by one bit, and those to the north and south the bits one row
+//stride away. The four neighbour bits are added with bit sliced adders into three bit planes,
+//ones, twos and fours, so every square's exit count is spread over the same bit of three words
+//and a dead end (at most 1 exit) or a junction (3 or more) is a couple of ands and ors
+//The runner counts the dead ends and junctions of every maze it solves with count, through
+//PathOracle.exitCounts and the oracle's Bitboard, and PathOracle's benchmark times classify.
+//ExitKernelsCheck compares both kernels with counting the exits of every square one by one,
+//on random boards
+//This class does it one word at a time. VectorExitKernels does the same with the incubating
+//Vector API, as many words at once as the processor's vectors hold, and is used instead whenever
+//it can be loaded. It has to be compiled and run with --add-modules jdk.incubator.vector,
+//without that it is missing or cannot link and this class is used. -Dmaze.vector=false forces
+//the scalar kernels
+//Nothing else names VectorExitKernels in its source, so a compile without the flag simply leaves
+//VectorExitKernels.java out: javac -cp maze-environment.jar $(ls *.java | grep -v VectorExitKernels)
+//builds everything else, this class included. javac *.java only works with the flag added
+
+public class ExitKernels {
+    private static final ExitKernels best = load();
+
+    /**
+     * Returns the fastest kernels available, the vector ones if the Vector API module
+     * is present and otherwise the scalar ones.
+     *
+     * @return the kernels
+     */
+    public static ExitKernels best() { return best; }
+
+    /**
+     * Loads the vector kernels, falling back to the scalar ones.
+     *
+     * @return the kernels to use
+     */
+    private static ExitKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty("maze.vector", "true"))) {
+            return new ExitKernels();
+        }
+        try {
+            return (ExitKernels) Class.forName("VectorExitKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ExitKernels(); // Not compiled, or the module was not added
+        }
+    }
+
+    /**
+     * Returns what the kernels are called, for reports.
+     *
+     * @return "scalar"
+     */
+    public String name() { return "scalar"; }
+
+    /**
+     * Counts the open neighbours of every open square in a run of words, writing the
+     * count as three bit planes. Closed squares get a count of 0.
+     *
+     * @param open the open squares, rows of {@code stride} bits with the last bit of every row closed
+     * @param stride the bits per row
+     * @param from the first word to count
+     * @param to the end of the words to count
+     * @param ones bit 0 of every count
+     * @param twos bit 1 of every count
+     * @param fours bit 2 of every count
+     */
+    public void count(long[] open, int stride, int from, int to, long[] ones, long[] twos, long[] fours) {
+        for (int word = from; word < to; word++) {
+            long here = open[word];
+            long a = here & shifted(open, word, 1);
+            long b = here & shifted(open, word, -1);
+            long c = here & shifted(open, word, stride);
+            long d = here & shifted(open, word, -stride);
+            long ab = a ^ b, cd = c ^ d;
+            long carry = ab & cd;
+            long abCarry = a & b, cdCarry = c & d;
+            ones[word] = ab ^ cd;
+            twos[word] = abCarry ^ cdCarry ^ carry;
+            fours[word] = (abCarry & cdCarry) | (abCarry & carry) | (cdCarry & carry);
+        }
+    }
+
+    /**
+     * Marks the dead ends, open squares with at most one exit, and the junctions,
+     * open squares with three or more, in a run of words.
+     *
+     * @param open the open squares, rows of {@code stride} bits with the last bit of every row closed
+     * @param stride the bits per row
+     * @param from the first word to mark
+     * @param to the end of the words to mark
+     * @param deadEnds the dead ends
+     * @param junctions the junctions
+     */
+    public void classify(long[] open, int stride, int from, int to, long[] deadEnds, long[] junctions) {
+        for (int word = from; word < to; word++) {
+            long here = open[word];
+            long a = shifted(open, word, 1);
+            long b = shifted(open, word, -1);
+            long c = shifted(open, word, stride);
+            long d = shifted(open, word, -stride);
+            // At least two exits is any pair open, at least three is any three open
+            long two = (a & (b | c | d)) | (b & (c | d)) | (c & d);
+            long three = (a & b & (c | d)) | (c & d & (a | b));
+            deadEnds[word] = here & ~two;
+            junctions[word] = here & three;
+        }
+    }
+
+    /**
+     * Reads the 64 squares {@code offset} squares on from the squares of a word,
+     * reading squares outside the maze as closed.
+     *
+     * @param open the open squares
+     * @param word the index of the word
+     * @param offset how many squares on to read, negative to read back
+     * @return bit i is square {@code word * 64 + i + offset}
+     */
+    private static long shifted(long[] open, int word, int offset) {
+        long bit = ((long) word << 6) + offset;
+        int first = (int) Math.floorDiv(bit, 64L);
+        int shift = (int) Math.floorMod(bit, 64L);
+        long bits = wordAt(open, first) >>> shift;
+        return (shift == 0) ? bits : bits | (wordAt(open, first + 1) << (64 - shift));
+    }
+
+    /**
+     * Reads a word, as 0 if it is outside the array.
+     *
+     * @param open the open squares
+     * @param word the index of the word
+     * @return the word
+     */
+    private static long wordAt(long[] open, int word) {
+        return (word < 0 || word >= open.length) ? 0 : open[word];
+    }
+}
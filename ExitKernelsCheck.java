@@ -0,0 +1,167 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the {@link ExitKernels} against counting the exits of every square one by one,
+ * and the vector kernels against the scalar ones, on random boards.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//Every board is a random bit set laid out like the oracle's Bitboard, rows of width squares
+//and a spare closed column, with widths either side of whole words so rows start anywhere in
+//a word. The exits of every open square are counted by looking at its four neighbours, and the
+//bit planes from count and the masks from classify have to give the same answer. Every board
+//is also done again as a few runs of words split at random, as a caller working on part of a
+//board would, and the vector kernels, when they can be loaded, have to match the scalar ones
+//word for word. The boards come from fixed seeds so a failure can be repeated
+//Compile and run with --add-modules jdk.incubator.vector to check the vector kernels as well
+//Usage: java ExitKernelsCheck [boards], 200 by default. Prints the first board that disagrees
+//and exits with status 1 if any does
+
+public class ExitKernelsCheck {
+    private static final int[] widths = {1, 2, 7, 62, 63, 64, 65, 127, 200, 511, 1000};
+
+    /**
+     * Checks the kernels on random boards.
+     *
+     * @param args optionally how many boards to check
+     */
+    public static void main(String[] args) {
+        int boards = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        ExitKernels scalar = new ExitKernels();
+        ExitKernels best = ExitKernels.best();
+        System.out.println("Checking the scalar kernels" + ((best.getClass() == ExitKernels.class)
+                ? "" : " and the " + best.name() + " kernels") + " on " + boards + " boards");
+        for (int board = 0; board < boards; board++) {
+            Random random = new Random(board);
+            int width = widths[board % widths.length];
+            int height = 1 + random.nextInt(Math.max(2, 40000 / width));
+            int density = 1 + random.nextInt(9); // Tenths of the squares that are open
+            String problem = check(scalar, best, width, height, density, random);
+            if (problem != null) {
+                System.out.println("Board " + board + " (" + width + " x " + height + ", " + density + "0% open): " + problem);
+                System.exit(1);
+            }
+        }
+        System.out.println("All boards agree");
+    }
+
+    /**
+     * Checks both kernels on one random board.
+     *
+     * @param scalar the scalar kernels
+     * @param best the kernels ExitKernels uses, maybe the scalar ones again
+     * @param width the width of the board
+     * @param height the height of the board
+     * @param density how many tenths of the squares are open
+     * @param random where the board and the splits come from
+     * @return what disagreed, or {@code null} if nothing did
+     */
+    private static String check(ExitKernels scalar, ExitKernels best, int width, int height, int density, Random random) {
+        int stride = width + 1;
+        long[] open = new long[(stride * height + 63) / 64];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextInt(10) < density) {
+                    int cell = y * stride + x;
+                    open[cell >> 6] |= 1L << cell;
+                }
+            }
+        }
+        int[] cuts = cuts(open.length, random);
+        for (ExitKernels kernels : new ExitKernels[]{scalar, best}) {
+            for (boolean split : new boolean[]{false, true}) {
+                long[] ones = new long[open.length], twos = new long[open.length], fours = new long[open.length];
+                long[] deadEnds = new long[open.length], junctions = new long[open.length];
+                int[] runs = split ? cuts : new int[]{0, open.length};
+                for (int i = 0; i + 1 < runs.length; i++) {
+                    kernels.count(open, stride, runs[i], runs[i + 1], ones, twos, fours);
+                    kernels.classify(open, stride, runs[i], runs[i + 1], deadEnds, junctions);
+                }
+                for (int cell = 0; cell < stride * height; cell++) {
+                    int exits = isOpen(open, cell) ? exits(open, stride, height, cell) : 0;
+                    int counted = bit(ones, cell) | (bit(twos, cell) << 1) | (bit(fours, cell) << 2);
+                    String where = " at (" + cell % stride + ", " + cell / stride + ") with the " + kernels.name()
+                            + " kernels" + (split ? " on runs " + Arrays.toString(runs) : "");
+                    if (counted != exits) {
+                        return "counted " + counted + " exits instead of " + exits + where;
+                    }
+                    boolean deadEnd = isOpen(open, cell) && exits <= 1;
+                    boolean junction = isOpen(open, cell) && exits >= 3;
+                    if ((bit(deadEnds, cell) == 1) != deadEnd || (bit(junctions, cell) == 1) != junction) {
+                        return "classified a square with " + exits + " exits wrongly" + where;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits the words of a board into a few runs at random.
+     *
+     * @param words the words of the board
+     * @param random where the splits come from
+     * @return the start of every run and then the end of the last one
+     */
+    private static int[] cuts(int words, Random random) {
+        int[] cuts = new int[2 + random.nextInt(4)];
+        for (int i = 1; i < cuts.length - 1; i++) {
+            cuts[i] = random.nextInt(words + 1);
+        }
+        cuts[cuts.length - 1] = words;
+        Arrays.sort(cuts);
+        return cuts;
+    }
+
+    /**
+     * Counts the open neighbours of a square one by one.
+     *
+     * @param open the open squares
+     * @param stride the bits per row
+     * @param height the rows of the board
+     * @param cell the square
+     * @return how many of its four neighbours are open
+     */
+    private static int exits(long[] open, int stride, int height, int cell) {
+        int exits = 0;
+        int x = cell % stride;
+        if (x > 0 && isOpen(open, cell - 1)) {
+            exits++;
+        }
+        if (x < stride - 1 && isOpen(open, cell + 1)) {
+            exits++;
+        }
+        if (cell >= stride && isOpen(open, cell - stride)) {
+            exits++;
+        }
+        if (cell + stride < stride * height && isOpen(open, cell + stride)) {
+            exits++;
+        }
+        return exits;
+    }
+
+    /**
+     * Returns whether a square is open.
+     *
+     * @param open the open squares
+     * @param cell the square
+     * @return {@code true} if its bit is set
+     */
+    private static boolean isOpen(long[] open, int cell) {
+        return bit(open, cell) == 1;
+    }
+
+    /**
+     * Reads one bit of a bit set.
+     *
+     * @param bits the bit set
+     * @param cell the index of the bit
+     * @return the bit, 0 or 1
+     */
+    private static int bit(long[] bits, int cell) {
+        return (int) (bits[cell >> 6] >>> cell) & 1;
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks GrandeFinale's lock-free junction stack against a plain list, on one
+ * thread and then from several threads at once, on fixed seeds.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//The lock-free junction stack is driven with random pushes, truncations and lookups next to
+//a plain list doing the same, and then pushed by several threads at once while others read
+//it, after which every junction has to be on the stack exactly once, in the order its thread
+//pushed it and with the fields it was pushed with. Every check prints what disagreed and the
+//program exits with status 1
+//Compile together with GrandeFinale.java and the files it is compiled with
+//Usage: java -cp .:maze-environment.jar GrandeFinaleCheck
+
+@SuppressWarnings("auxiliaryclass") // RobotData stays in GrandeFinale.java like every exercise's
+public class GrandeFinaleCheck {
+    private static final int threads = 4;
+
+    /**
+     * Runs every check.
+     *
+     * @param args not used
+     * @throws InterruptedException if the main thread is interrupted while the threads run
+     */
+    public static void main(String[] args) throws InterruptedException {
+        checkJunctionStack();
+        checkConcurrentJunctions();
+        System.out.println("All checks passed");
+    }
+
+    /**
+     * Drives the junction stack and a plain list with the same random operations and
+     * compares every answer.
+     */
+    private static void checkJunctionStack() {
+        Random random = new Random(31);
+        RobotData stack = new RobotData();
+        ArrayList<int[]> list = new ArrayList<>(); // {x, y, arrivedFrom, direction}, oldest first
+        for (int step = 0; step < 200000; step++) {
+            int x = random.nextInt(8);
+            int y = random.nextInt(8);
+            int choice = random.nextInt(10);
+            if (choice < 5) {
+                int arrivedFrom = 1000 + random.nextInt(4);
+                int direction = 1000 + random.nextInt(4);
+                stack.recordJunction(x, y, arrivedFrom, direction);
+                list.add(new int[]{x, y, arrivedFrom, direction});
+            } else if (choice < 7) {
+                stack.removeJunctionsAfter(x, y);
+                int first = oldest(list, x, y);
+                if (first >= 0) {
+                    list.subList(first, list.size()).clear();
+                }
+            } else if (choice == 7 && random.nextInt(100) == 0) {
+                stack.resetJunctionCounter();
+                list.clear();
+            }
+            int first = oldest(list, x, y);
+            expect(stack.searchJunction(x, y) == ((first < 0) ? -1 : list.get(first)[2]), "searchJunction", step);
+            expect(stack.getJunctionCounter() == list.size(), "getJunctionCounter", step);
+            JunctionRecorder found = stack.findJunction(x, y);
+            int newest = -1;
+            for (int i = list.size() - 1; i >= 0 && newest < 0; i--) {
+                newest = (list.get(i)[0] == x && list.get(i)[1] == y) ? i : -1;
+            }
+            expect((found == null) == (newest < 0)
+                    && (found == null || Arrays.equals(fields(found), list.get(newest))), "findJunction", step);
+            if (!list.isEmpty()) {
+                int index = random.nextInt(list.size());
+                JunctionRecorder at = stack.getJunction(index);
+                expect(at != null && Arrays.equals(fields(at), list.get(index)), "getJunction", step);
+            }
+        }
+        System.out.println("Junction stack agrees with a list on 200000 operations");
+    }
+
+    /**
+     * Pushes junctions from several threads at once while other threads read the
+     * stack, then checks that none was lost, duplicated, reordered or torn.
+     *
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    private static void checkConcurrentJunctions() throws InterruptedException {
+        int pushes = 5000;
+        RobotData stack = new RobotData();
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicReference<String> problem = new AtomicReference<>();
+        Thread[] workers = new Thread[2 * threads];
+        for (int t = 0; t < workers.length; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (thread < threads) {
+                    for (int i = 0; i < pushes; i++) {
+                        stack.recordJunction(thread, i, 1000 + (thread + i) % 4, 1000 + i % 4);
+                    }
+                    return;
+                }
+                // A reader sees whole junctions only, whatever the writers are doing
+                Random random = new Random(thread);
+                for (int i = 0; i < pushes; i++) {
+                    JunctionRecorder j = stack.findJunction(random.nextInt(threads), random.nextInt(pushes));
+                    if (j != null && (j.getArrivedFrom() != 1000 + (j.getX() + j.getY()) % 4
+                            || j.getDirection() != 1000 + j.getY() % 4)) {
+                        problem.compareAndSet(null, "torn junction read at " + j.getX() + ", " + j.getY());
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        expect(problem.get() == null, problem.get(), 0);
+        expect(stack.getJunctionCounter() == threads * pushes, "junctions lost or duplicated", stack.getJunctionCounter());
+        int[] next = new int[threads]; // The next junction expected from every thread, oldest first
+        for (int index = 0; index < threads * pushes; index++) {
+            JunctionRecorder j = stack.getJunction(index);
+            int thread = j.getX();
+            expect(j.getY() == next[thread], "junction out of order or lost", index);
+            expect(j.getArrivedFrom() == 1000 + (thread + j.getY()) % 4 && j.getDirection() == 1000 + j.getY() % 4,
+                    "junction torn", index);
+            next[thread]++;
+        }
+        System.out.println("Junction stack kept all " + threads * pushes + " junctions pushed by " + threads
+                + " threads in order while " + threads + " threads read it");
+    }
+
+    /**
+     * Returns the index of the oldest junction in the list at a square.
+     *
+     * @param list the junctions, oldest first
+     * @param x the x-coordinate of the square
+     * @param y the y-coordinate of the square
+     * @return the index, or -1 if there is none
+     */
+    private static int oldest(ArrayList<int[]> list, int x, int y) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i)[0] == x && list.get(i)[1] == y) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the fields of a junction in the order the list keeps them. The junction
+     * is taken as an {@code Object} as a parameter of type JunctionRecorder would
+     * raise the auxiliary class warning wherever it is suppressed.
+     *
+     * @param junction a {@code JunctionRecorder}
+     * @return {x, y, arrivedFrom, direction}
+     */
+    private static int[] fields(Object junction) {
+        JunctionRecorder j = (JunctionRecorder) junction;
+        return new int[]{j.getX(), j.getY(), j.getArrivedFrom(), j.getDirection()};
+    }
+
+    /**
+     * Stops the program with a message if a check failed.
+     *
+     * @param ok whether the check passed
+     * @param what what was checked
+     * @param where the step, square or count where it failed
+     */
+    private static void expect(boolean ok, String what, int where) {
+        if (!ok) {
+            System.out.println("Check failed: " + what + " (" + where + ")");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * A robot that moves around a {@link Maze} without the simulator's events, so a
+ * controller can be driven directly. It only keeps what the controllers ask for:
+ * its square, heading, the run number and which squares it has been to.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class HeadlessRobot implements IRobot {
+    private static final int[] dx = {0, 1, 0, -1}; // NORTH, EAST, SOUTH, WEST
+    private static final int[] dy = {-1, 0, 1, 0};
+    private final Maze maze;
+    private final boolean[] beenBefore;
+    private int x;
+    private int y;
+    private int heading = IRobot.NORTH;
+    private int runs = 0;
+
+    /**
+     * Constructs a new {@code HeadlessRobot} in a maze.
+     *
+     * @param maze the maze the robot moves around
+     */
+    public HeadlessRobot(Maze maze) {
+        this.maze = maze;
+        beenBefore = new boolean[maze.getWidth() * maze.getHeight()];
+    }
+
+    /**
+     * Puts the robot back on the start square facing NORTH for a new run, and
+     * forgets which squares it has been to like the simulator does.
+     *
+     * @param run the number of runs already completed
+     */
+    public void startRun(int run) {
+        startRun(run, IRobot.NORTH);
+    }
+
+    /**
+     * Puts the robot back on the start square facing the given way for a new run,
+     * and forgets which squares it has been to like the simulator does.
+     *
+     * @param run the number of runs already completed
+     * @param heading the absolute heading to start with
+     */
+    public void startRun(int run, int heading) {
+        runs = run;
+        x = maze.getStart().x;
+        y = maze.getStart().y;
+        this.heading = heading;
+        Arrays.fill(beenBefore, false);
+        beenBefore[y * maze.getWidth() + x] = true;
+    }
+
+    /**
+     * Moves the robot one square in the direction it is heading, unless a wall is in the way.
+     *
+     * @return {@code true} if the robot moved
+     */
+    public boolean advance() {
+        int nx = x + dx[heading - IRobot.NORTH];
+        int ny = y + dy[heading - IRobot.NORTH];
+        if (maze.getCellType(nx, ny) == Maze.WALL) {
+            return false;
+        }
+        x = nx;
+        y = ny;
+        beenBefore[y * maze.getWidth() + x] = true;
+        return true;
+    }
+
+    /**
+     * Returns whether the robot is on the target square.
+     *
+     * @return {@code true} if the robot has reached the target
+     */
+    public boolean atTarget() {
+        return x == maze.getFinish().x && y == maze.getFinish().y;
+    }
+
+    public int getRuns() { return runs; }
+
+    public int look(int direction) {
+        if (direction < IRobot.AHEAD || direction > IRobot.LEFT) {
+            throw new RuntimeException("The robot can only look AHEAD, BEHIND, LEFT and RIGHT.");
+        }
+        int absolute = (heading - IRobot.NORTH + direction - IRobot.AHEAD) % 4;
+        int nx = x + dx[absolute];
+        int ny = y + dy[absolute];
+        if (maze.getCellType(nx, ny) == Maze.WALL) {
+            return IRobot.WALL;
+        }
+        return beenBefore[ny * maze.getWidth() + nx] ? IRobot.BEENBEFORE : IRobot.PASSAGE;
+    }
+
+    public void face(int direction) {
+        if (direction < IRobot.AHEAD || direction > IRobot.LEFT) {
+            throw new RuntimeException("The robot can only face AHEAD, BEHIND, LEFT and RIGHT.");
+        }
+        heading = ((heading - IRobot.NORTH + direction - IRobot.AHEAD) % 4) + IRobot.NORTH;
+    }
+
+    public void setHeading(int heading) {
+        if (heading < IRobot.NORTH || heading > IRobot.WEST) {
+            throw new RuntimeException("The robot's heading can only be NORTH, SOUTH, EAST or WEST.");
+        }
+        this.heading = heading;
+    }
+
+    public int getHeading() { return heading; }
+
+    public Point getLocation() { return new Point(x, y); }
+
+    public Point getTargetLocation() { return maze.getFinish(); }
+
+    public Maze getMaze() { return maze; }
+
+    public void sleep(int millis) { }
+}
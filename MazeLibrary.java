@@ -0,0 +1,347 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the maps of mazes solved in earlier sessions in a file so a maze can be
+ * recognised when it comes round again. Every map is stored as one byte per square,
+ * row by row whatever order the robot's {@link MazeMap} keeps, the open sides and a bit
+ * for squares the robot stood on, together with an id and the size, start and target of
+ * the maze. The file is read in full once per JVM. A new map is appended to it, and a map
+ * that was recognised again is appended with the same id and replaces the older record
+ * when the file is read. Only the {@code maze.libraryMazes} most recently remembered
+ * maps are kept, 256 by default, and the file is rewritten without the replaced and
+ * dropped records once it holds twice as many records as that.
+ * <p>
+ * The workers of a {@link ShardCoordinator} share the file, so every read and write holds
+ * a lock on it. Before adding a map the library reads the records other JVMs appended
+ * since, so the new id is one nobody has used and a rewrite keeps their maps. A rewrite
+ * gives the file a new random generation in its header, and a JVM that finds another
+ * generation than the one it read reads the whole file again.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class MazeLibrary {
+    private static final int magic = 0x4d5a4c33; // "MZL3", a generation then the appended records
+    private static final int appendedMagic = 0x4d5a4c32; // "MZL2", the old layout without a generation
+    private static final int countedMagic = 0x4d5a4c42; // "MZLB", the old layout with a count first
+    private static final int headerBytes = 12;
+    private static final int visitedBit = 16;
+    private static final int capacity = Math.max(1, Integer.getInteger("maze.libraryMazes", 256));
+    private static final AtomicReference<MazeLibrary> current = new AtomicReference<>();
+    private final File file;
+    // Least recently remembered first
+    private final ArrayList<Integer> ids = new ArrayList<>();
+    private final ArrayList<int[]> headers = new ArrayList<>(); // {width, height, start, target}
+    private final ArrayList<byte[]> maps = new ArrayList<>();
+    private final HashMap<List<Integer>, MazeRecogniser.Index> indexes = new HashMap<>();
+    private int nextId = 0; // Above every id in the file, only handed out while it is locked
+    private int records = 0; // Records in the file, replaced and dropped ones included
+    private long generation; // Changed by every rewrite of the file
+    private long length = 0; // Bytes of the file read so far, 0 if there is none
+    private boolean rewrite = false; // The file has to be rewritten before anything is appended
+
+    /**
+     * Constructs an empty {@code MazeLibrary} for a file.
+     *
+     * @param file the file the library is kept in
+     */
+    private MazeLibrary(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the library kept in a file, reading it the first time it is asked for.
+     *
+     * @param path the library file, or {@code null} for no library
+     * @return the library, or {@code null} if there is none
+     */
+    public static MazeLibrary open(String path) {
+        if (path == null) {
+            return null;
+        }
+        File file = new File(path);
+        MazeLibrary library = current.get();
+        if (library != null && library.file.equals(file)) {
+            return library;
+        }
+        synchronized (MazeLibrary.class) {
+            library = current.get();
+            if (library == null || !library.file.equals(file)) {
+                library = new MazeLibrary(file);
+                library.load();
+                current.set(library);
+            }
+            return library;
+        }
+    }
+
+    /**
+     * Starts recognising a maze from the squares a robot stands on, comparing it with
+     * every known maze of the same size with the same start and target.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     * @param start the row by row index of the start square
+     * @param target the row by row index of the target square
+     * @return the recogniser, or {@code null} if no known maze could match
+     */
+    public synchronized MazeRecogniser recogniser(int width, int height, int start, int target) {
+        MazeRecogniser.Index index = indexes.computeIfAbsent(Arrays.asList(width, height, start, target), key -> {
+            ArrayList<byte[]> candidates = new ArrayList<>();
+            for (int i = 0; i < headers.size(); i++) {
+                int[] header = headers.get(i);
+                if (header[0] == width && header[1] == height && header[2] == start && header[3] == target) {
+                    candidates.add(maps.get(i));
+                }
+            }
+            return candidates.isEmpty() ? null : new MazeRecogniser.Index(candidates, width * height);
+        });
+        return (index == null) ? null : new MazeRecogniser(index);
+    }
+
+    /**
+     * Adds the squares the robot knows of a solved maze to the library and saves it.
+     * A map that was recognised is replaced, so it grows with every session.
+     *
+     * @param map the robot's map
+     * @param start the map index of the start square
+     * @param target the map index of the target square
+     * @param recognised the known map the maze was recognised as, or {@code null}
+     */
+    public synchronized void remember(MazeMap map, int start, int target, byte[] recognised) {
+        byte[] cells = new byte[map.getWidth() * map.getHeight()];
+        for (int cell = 0; cell < map.size(); cell++) {
+            if (map.isVisited(cell)) {
+                cells[map.rowIndex(cell)] = (byte) (map.sides(cell) | visitedBit);
+            }
+        }
+        int[] header = {map.getWidth(), map.getHeight(), map.rowIndex(start), map.rowIndex(target)};
+        int index = maps.indexOf(recognised);
+        int known = (index >= 0) ? ids.get(index) : -1; // Before reading again drops the array
+        // A JVM may only hold one lock on a file, so its libraries take turns
+        synchronized (MazeLibrary.class) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                channel.lock(); // Released when the channel is closed
+                read(channel);
+                int id = (known >= 0) ? known : nextId++;
+                put(id, header, cells);
+                if (rewrite || records >= 2 * capacity) {
+                    rewrite(channel);
+                } else {
+                    append(channel, id, header, cells);
+                }
+            } catch (IOException e) {
+                System.out.println("Could not save the maze library: " + e.getMessage());
+            }
+        }
+        indexes.clear();
+    }
+
+    /**
+     * Adds a map as the most recently remembered one, replacing the map with the same
+     * id and dropping the least recently remembered ones over the capacity.
+     *
+     * @param id the id of the map
+     * @param header the width, height, start and target of the maze
+     * @param cells the map
+     */
+    private void put(int id, int[] header, byte[] cells) {
+        int index = ids.indexOf(id);
+        if (index >= 0) {
+            ids.remove(index);
+            headers.remove(index);
+            maps.remove(index);
+        }
+        ids.add(id);
+        headers.add(header);
+        maps.add(cells);
+        while (maps.size() > capacity) {
+            ids.remove(0);
+            headers.remove(0);
+            maps.remove(0);
+        }
+    }
+
+    /**
+     * Reads the library file if there is one. A file in an old layout, or one that
+     * ends part way through a record, is rewritten the next time a map is added.
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.lock(0, Long.MAX_VALUE, true); // Shared, other JVMs may read at the same time
+            read(channel);
+        } catch (IOException e) {
+            System.out.println("Could not read all of the maze library: " + e.getMessage());
+            rewrite = true;
+        }
+    }
+
+    /**
+     * Reads the records added to the locked library file since it was last read, or
+     * all of them if it was rewritten since.
+     *
+     * @param channel the library file, locked
+     * @throws IOException if the file cannot be read
+     */
+    private void read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            length = 0;
+            return;
+        }
+        DataInputStream in = stream(channel, 0);
+        int found = in.readInt();
+        if (found != magic && found != appendedMagic && found != countedMagic) {
+            System.out.println(file + " is not a maze library, starting a new one");
+            rewrite = true;
+            return;
+        }
+        long fileGeneration = (found == magic) ? in.readLong() : 0;
+        long offset = (found == magic) ? headerBytes : 4;
+        if (found == magic && fileGeneration == generation && length >= headerBytes && length <= size) {
+            in = stream(channel, length); // Only the records appended since
+            offset = length;
+        } else {
+            ids.clear();
+            headers.clear();
+            maps.clear();
+            records = 0;
+            nextId = 0;
+            generation = fileGeneration;
+            rewrite = found != magic; // An old layout is written again in the current one
+        }
+        int count = Integer.MAX_VALUE;
+        if (found == countedMagic) {
+            count = in.readInt();
+            offset += 4;
+        }
+        for (int i = 0; i < count && offset < size; i++) {
+            try {
+                int id = (found == countedMagic) ? i : in.readInt();
+                int[] header = {in.readInt(), in.readInt(), in.readInt(), in.readInt()};
+                byte[] cells = new byte[header[0] * header[1]];
+                in.readFully(cells);
+                put(id, header, cells);
+                nextId = Math.max(nextId, id + 1);
+                records++;
+                offset += ((found == countedMagic) ? 16 : 20) + cells.length;
+            } catch (EOFException e) {
+                System.out.println("The maze library ends part way through a record");
+                rewrite = true;
+                break;
+            }
+        }
+        length = offset;
+    }
+
+    /**
+     * Returns a stream reading the file from an offset, without closing it.
+     *
+     * @param channel the file
+     * @param offset where to start reading
+     * @return the stream
+     * @throws IOException if the file cannot be read
+     */
+    private static DataInputStream stream(FileChannel channel, long offset) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(offset))));
+    }
+
+    /**
+     * Appends one record to the locked library file, starting the file if it is new.
+     *
+     * @param channel the library file, locked
+     * @param id the id of the map
+     * @param header the width, height, start and target of the maze
+     * @param cells the map
+     * @throws IOException if the record cannot be written
+     */
+    private void append(FileChannel channel, int id, int[] header, byte[] cells) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(headerBytes + 20 + cells.length);
+        DataOutputStream record = new DataOutputStream(bytes);
+        if (length == 0) {
+            generation = ThreadLocalRandom.current().nextLong();
+            record.writeInt(magic);
+            record.writeLong(generation);
+        }
+        write(record, id, header, cells);
+        length += writeAt(channel, bytes.toByteArray(), length);
+        records++;
+    }
+
+    /**
+     * Writes the whole library to its locked file under a new generation, leaving out
+     * the records that were replaced or dropped.
+     *
+     * @param channel the library file, locked
+     * @throws IOException if the file cannot be written
+     */
+    private void rewrite(FileChannel channel) throws IOException {
+        long next = ThreadLocalRandom.current().nextLong();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(magic);
+        out.writeLong(next);
+        for (int i = 0; i < maps.size(); i++) {
+            write(out, ids.get(i), headers.get(i), maps.get(i));
+        }
+        length = writeAt(channel, bytes.toByteArray(), 0);
+        channel.truncate(length);
+        generation = next;
+        records = maps.size();
+        rewrite = false;
+    }
+
+    /**
+     * Writes bytes to a file at an offset.
+     *
+     * @param channel the file
+     * @param data the bytes to write
+     * @param offset where to write them
+     * @return how many bytes were written
+     * @throws IOException if the bytes cannot be written
+     */
+    private static int writeAt(FileChannel channel, byte[] data, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        return data.length;
+    }
+
+    /**
+     * Writes one record.
+     *
+     * @param out the stream to write to
+     * @param id the id of the map
+     * @param header the width, height, start and target of the maze
+     * @param cells the map
+     * @throws IOException if the record cannot be written
+     */
+    private static void write(DataOutputStream out, int id, int[] header, byte[] cells) throws IOException {
+        out.writeInt(id);
+        for (int value : header) {
+            out.writeInt(value);
+        }
+        out.write(cells);
+    }
+}
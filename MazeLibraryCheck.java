@@ -0,0 +1,138 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that several JVMs can share one {@link MazeLibrary} file without losing each
+ * other's maps, on fixed seeds.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//Starts several worker JVMs on one new library file, the way the workers of a ShardCoordinator
+//share -Dmaze.library. Every worker remembers maps of its own, each with its own start square, and
+//then recognises and remembers every one of them twice more, so the file is rewritten several
+//times while the others are still appending. Afterwards every map has to be in the file exactly
+//as it was remembered, which fails if a rewrite dropped records another JVM appended or two JVMs
+//handed out the same id. Prints what disagreed and exits with status 1
+//Compile together with MazeLibrary.java, MazeRecogniser.java and MazeMap.java
+//Usage: java -cp .:maze-environment.jar MazeLibraryCheck
+
+public class MazeLibraryCheck {
+    private static final int workers = 4;
+    private static final int mapsPerWorker = 40;
+    private static final int side = 16; // Width and height of every map, so 256 start squares
+
+    /**
+     * Runs the workers on a new library file and compares every map in it with the one
+     * that was remembered, or works as one of the workers.
+     *
+     * @param args nothing, or "worker", the library file and the worker's number
+     * @throws IOException if a worker cannot be started
+     * @throws InterruptedException if the main thread is interrupted while the workers run
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 3 && args[0].equals("worker")) {
+            work(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        File file = File.createTempFile("maze", ".library");
+        file.delete(); // The workers start it
+        file.deleteOnExit();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ArrayList<Process> processes = new ArrayList<>();
+        for (int worker = 0; worker < workers; worker++) {
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "-Dmaze.libraryMazes=" + (workers * mapsPerWorker), "MazeLibraryCheck", "worker",
+                    file.getPath(), String.valueOf(worker)).inheritIO().start());
+        }
+        int failures = 0;
+        for (Process process : processes) {
+            if (process.waitFor() != 0) {
+                System.out.println("A worker exited with status " + process.exitValue());
+                failures++;
+            }
+        }
+        MazeLibrary library = MazeLibrary.open(file.getPath());
+        for (int number = 0; number < workers * mapsPerWorker; number++) {
+            byte[] found = recognise(library, number);
+            byte[] expected = cells(number);
+            if (found == null) {
+                System.out.println("Map " + number + " is not in the library");
+                failures++;
+            } else if (!Arrays.equals(found, expected)) {
+                System.out.println("Map " + number + " does not match what was remembered");
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            System.out.println(failures + " failures");
+            System.exit(1);
+        }
+        System.out.println("All " + (workers * mapsPerWorker) + " maps of " + workers + " JVMs are in the library");
+    }
+
+    /**
+     * Remembers the maps of one worker, then recognises and remembers each of them
+     * twice more.
+     *
+     * @param path the library file
+     * @param worker the worker's number
+     */
+    private static void work(String path, int worker) {
+        MazeLibrary library = MazeLibrary.open(path);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < mapsPerWorker; i++) {
+                int number = worker * mapsPerWorker + i;
+                byte[] recognised = (round == 0) ? null : recognise(library, number);
+                if (round > 0 && recognised == null) {
+                    System.out.println("Worker " + worker + " lost map " + number);
+                    System.exit(1);
+                }
+                MazeMap map = new MazeMap(side, side);
+                byte[] cells = cells(number);
+                for (int cell = 0; cell < map.size(); cell++) {
+                    map.learn(cell, cells[map.rowIndex(cell)] & 15);
+                }
+                library.remember(map, map.index(number % side, number / side), 0, recognised);
+            }
+        }
+    }
+
+    /**
+     * Recognises a map from all of its squares.
+     *
+     * @param library the library
+     * @param number the map's number, which is also its start square
+     * @return the map the library recognised, or {@code null} if it did not
+     */
+    private static byte[] recognise(MazeLibrary library, int number) {
+        MazeRecogniser recogniser = library.recogniser(side, side, number, 0);
+        if (recogniser == null) {
+            return null;
+        }
+        byte[] cells = cells(number);
+        for (int cell = 0; cell < cells.length; cell++) {
+            recogniser.see(cell, cells[cell] & 15);
+        }
+        return recogniser.recognised();
+    }
+
+    /**
+     * Returns the squares of a map row by row, as the library stores them.
+     *
+     * @param number the map's number
+     * @return the open sides of every square with the visited bit
+     */
+    private static byte[] cells(int number) {
+        Random random = new Random(number);
+        byte[] cells = new byte[side * side];
+        for (int cell = 0; cell < cells.length; cell++) {
+            cells[cell] = (byte) (random.nextInt(16) | 16);
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,422 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+
+/**
+ * Remembers every square the robot has stood on and which of its four sides are open.
+ * Each square is a single byte, the low four bits say whether NORTH, EAST, SOUTH and
+ * WEST are open, the next bit says whether the robot has been there and the one after
+ * says whether the square has been sealed off as part of a dead end. Squares are
+ * stored row by row so square (x, y) lives at index y * width + x, or in Morton (Z)
+ * order, the bits of x and y interleaved, so the squares above and below one are nearly
+ * always in the same few cache lines as the ones beside it. Only the low bits are
+ * interleaved, within square tiles of at most 64 by 64 squares, one 4 KB page of bytes,
+ * and no larger than the shorter side of the maze. The tiles themselves follow one
+ * another row by row, so the map is never much larger than the maze.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class MazeMap {
+    static final int[] dx = {0, 1, 0, -1}; // NORTH, EAST, SOUTH, WEST
+    static final int[] dy = {-1, 0, 1, 0};
+    private static final int visitedBit = 16;
+    private static final int sealedBit = 32;
+    private int width;
+    private int height;
+    private final boolean morton; // false keeps squares row by row at y * width + x
+    private static final int maxTileBits = 6;
+    private final int tileBits; // Bits of each coordinate interleaved within a tile
+    private final int tilesAcross;
+    private final int tileMask; // The interleaved bits of a square within its tile
+    private final int xBits; // The bits of tileMask that hold x, every other bit from bit 0
+    private final int yBits; // The bits of tileMask that hold y
+    private final boolean[] partial; // Tiles that stick out past the right or bottom of the maze
+    private byte[] cells;
+
+    /**
+     * Constructs an empty {@code MazeMap} the same size as the maze, stored row by row.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     */
+    public MazeMap(int width, int height) {
+        this(width, height, false);
+    }
+
+    /**
+     * Constructs an empty {@code MazeMap} the same size as the maze, in Morton order
+     * or row by row.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     * @param morton {@code true} for Morton order, {@code false} for row by row
+     */
+    public MazeMap(int width, int height, boolean morton) {
+        this.width = width;
+        this.height = height;
+        this.morton = morton;
+        tileBits = tileBits(width, height);
+        tilesAcross = ((width - 1) >> tileBits) + 1;
+        tileMask = (1 << (2 * tileBits)) - 1;
+        xBits = 0x55555555 & tileMask;
+        yBits = 0xaaaaaaaa & tileMask;
+        cells = new byte[morton ? cellsFor(width, height) : width * height];
+        partial = new boolean[morton ? cells.length >> (2 * tileBits) : 0];
+        for (int tile = 0; tile < partial.length; tile++) {
+            partial[tile] = (((tile % tilesAcross) + 1) << tileBits) > width || (((tile / tilesAcross) + 1) << tileBits) > height;
+        }
+    }
+
+    /**
+     * Returns how many entries a Morton order map of a maze has, which is a little
+     * more than its number of squares as the tiles on the right and bottom edges are
+     * only partly used.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     * @return the length of the map's arrays
+     */
+    private static int cellsFor(int width, int height) {
+        int tileBits = tileBits(width, height);
+        return ((((width - 1) >> tileBits) + 1) * (((height - 1) >> tileBits) + 1)) << (2 * tileBits);
+    }
+
+    /**
+     * Works out the size of the tiles, the largest power of two up to 64 that is
+     * no longer than the shorter side of the maze.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     * @return the number of bits of each coordinate that are interleaved
+     */
+    private static int tileBits(int width, int height) {
+        return Math.min(maxTileBits, 31 - Integer.numberOfLeadingZeros(Math.max(1, Math.min(width, height))));
+    }
+
+    /**
+     * Spreads the low 16 bits of a value out to the even bits.
+     *
+     * @param v the value
+     * @return the bits of {@code v} with a 0 bit between each
+     */
+    private static int spread(int v) {
+        v &= 0xffff;
+        v = (v | (v << 8)) & 0x00ff00ff;
+        v = (v | (v << 4)) & 0x0f0f0f0f;
+        v = (v | (v << 2)) & 0x33333333;
+        return (v | (v << 1)) & 0x55555555;
+    }
+
+    /**
+     * Gathers the even bits of a value back together, undoing {@link #spread(int)}.
+     *
+     * @param v the spread value
+     * @return the even bits of {@code v} packed into the low 16 bits
+     */
+    private static int compact(int v) {
+        v &= 0x55555555;
+        v = (v | (v >>> 1)) & 0x33333333;
+        v = (v | (v >>> 2)) & 0x0f0f0f0f;
+        v = (v | (v >>> 4)) & 0x00ff00ff;
+        return (v | (v >>> 8)) & 0xffff;
+    }
+
+    /**
+     * Records the square the robot is standing on together with which sides of it
+     * are open. The robot only tells us about its sides relative to its heading so
+     * every absolute direction is converted before looking.
+     *
+     * @param robot the {@link IRobot} standing on the square to record
+     */
+    public void record(IRobot robot) {
+        int cell = index(robot.getLocation().x, robot.getLocation().y);
+        if ((cells[cell] & visitedBit) != 0) {
+            return;
+        }
+        int heading = robot.getHeading() - IRobot.NORTH;
+        int open = visitedBit;
+        for (int dir = 0; dir < 4; dir++) {
+            int relative = ((dir - heading + 4) % 4) + IRobot.AHEAD;
+            if (robot.look(relative) != IRobot.WALL) {
+                open |= 1 << dir;
+            }
+        }
+        cells[cell] = (byte) open;
+    }
+
+    /**
+     * Looks at all four sides of the square the robot is on again and updates the
+     * map where they differ from what was recorded. A square that was never stood on
+     * is compared with what its visited neighbours said about it, so an opening into
+     * a square nobody has seen yet counts as a change too. The neighbouring
+     * squares are updated as well so both sides of a changed wall agree.
+     *
+     * @param robot the {@link IRobot} standing on the square
+     * @return a bit for every side that changed, bit 0 = NORTH to bit 3 = WEST
+     */
+    public int refresh(IRobot robot) {
+        int cell = index(robot.getLocation().x, robot.getLocation().y);
+        int heading = robot.getHeading() - IRobot.NORTH;
+        int open = 0;
+        for (int dir = 0; dir < 4; dir++) {
+            int relative = ((dir - heading + 4) % 4) + IRobot.AHEAD;
+            if (robot.look(relative) != IRobot.WALL) {
+                open |= 1 << dir;
+            }
+        }
+        int before = cells[cell] & 15;
+        if ((cells[cell] & visitedBit) == 0) {
+            // Until now the map only knew this square through the neighbours that were visited
+            before = 0;
+            for (int dir = 0; dir < 4; dir++) {
+                int next = neighbour(cell, dir);
+                if (next >= 0 && (cells[next] & visitedBit) != 0 && (cells[next] & (1 << ((dir + 2) % 4))) != 0) {
+                    before |= 1 << dir;
+                }
+            }
+        }
+        int changed = before ^ open;
+        cells[cell] = (byte) ((cells[cell] & ~15) | open | visitedBit);
+        for (int dir = 0; dir < 4; dir++) {
+            int next = neighbour(cell, dir);
+            if ((changed & (1 << dir)) != 0 && next >= 0 && (cells[next] & visitedBit) != 0) {
+                int opposite = 1 << ((dir + 2) % 4);
+                cells[next] = (byte) (((open & (1 << dir)) != 0) ? cells[next] | opposite : cells[next] & ~opposite);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the index of the square at the given coordinates.
+     *
+     * @param x the x-coordinate of the square
+     * @param y the y-coordinate of the square
+     * @return the index of the square
+     */
+    public int index(int x, int y) {
+        if (!morton) {
+            return y * width + x;
+        }
+        int mask = (1 << tileBits) - 1;
+        int tile = (y >> tileBits) * tilesAcross + (x >> tileBits);
+        return (tile << (2 * tileBits)) | spread(x & mask) | (spread(y & mask) << 1);
+    }
+
+    /**
+     * Returns the x-coordinate of the square at the given index.
+     *
+     * @param cell the index of the square
+     * @return the x-coordinate
+     */
+    public int getX(int cell) {
+        if (!morton) {
+            return cell % width;
+        }
+        return compact(cell & tileMask) | (((cell >>> (2 * tileBits)) % tilesAcross) << tileBits);
+    }
+
+    /**
+     * Returns the y-coordinate of the square at the given index.
+     *
+     * @param cell the index of the square
+     * @return the y-coordinate
+     */
+    public int getY(int cell) {
+        if (!morton) {
+            return cell / width;
+        }
+        return compact((cell & tileMask) >>> 1) | (((cell >>> (2 * tileBits)) / tilesAcross) << tileBits);
+    }
+
+    /**
+     * Returns the number of entries in the map, the squares of the maze and in
+     * Morton order the unused part of the last tile.
+     *
+     * @return the length of the map's arrays
+     */
+    public int size() { return cells.length; }
+
+    /**
+     * Returns the width of the map.
+     *
+     * @return the width of the maze
+     */
+    public int getWidth() { return width; }
+
+    /**
+     * Returns the index a square would have if the map were stored row by row,
+     * which is how maps are saved whatever order they are kept in.
+     *
+     * @param cell the index of the square
+     * @return y * width + x for the square
+     */
+    public int rowIndex(int cell) { return morton ? getY(cell) * width + getX(cell) : cell; }
+
+    /**
+     * Returns the height of the map.
+     *
+     * @return the height of the maze
+     */
+    public int getHeight() { return height; }
+
+    /**
+     * Returns whether the robot has stood on the given square.
+     *
+     * @param cell the index of the square
+     * @return {@code true} if the square has been recorded
+     */
+    public boolean isVisited(int cell) { return (cells[cell] & visitedBit) != 0; }
+
+    /**
+     * Returns which sides of a square are recorded as open.
+     *
+     * @param cell the index of the square
+     * @return a bit for every open side, bit 0 = NORTH to bit 3 = WEST
+     */
+    public int sides(int cell) { return cells[cell] & 15; }
+
+    /**
+     * Records a square the robot has not stood on from what someone else saw there.
+     * Squares the robot has been to itself are left alone.
+     *
+     * @param cell the index of the square
+     * @param open a bit for every open side, bit 0 = NORTH to bit 3 = WEST
+     */
+    public void learn(int cell, int open) {
+        if ((cells[cell] & visitedBit) == 0) {
+            cells[cell] = (byte) ((cells[cell] & sealedBit) | (open & 15) | visitedBit);
+        }
+    }
+
+    /**
+     * Returns the square next to the given one in an absolute direction.
+     *
+     * @param cell the index of the square
+     * @param dir the direction, 0 = NORTH, 1 = EAST, 2 = SOUTH, 3 = WEST
+     * @return the index of the neighbouring square, or -1 if it is outside the maze
+     */
+    public int neighbour(int cell, int dir) {
+        if (morton) {
+            // Step the interleaved x or y bits directly, carrying through the other
+            // coordinate's bits, as long as the step stays inside the tile
+            int low = cell & tileMask;
+            int next = -1;
+            switch (dir) {
+                case 0: next = ((low & yBits) != 0) ? ((low & yBits) - 2) & yBits | (low & xBits) : -1; break;
+                case 1: next = ((low & xBits) != xBits && !partial[cell >>> (2 * tileBits)])
+                        ? ((low | yBits) + 1) & xBits | (low & yBits) : -1; break;
+                case 2: next = ((low & yBits) != yBits && !partial[cell >>> (2 * tileBits)])
+                        ? ((low | xBits) + 2) & yBits | (low & xBits) : -1; break;
+                case 3: next = ((low & xBits) != 0) ? ((low & xBits) - 1) & xBits | (low & yBits) : -1; break;
+            }
+            if (next >= 0) {
+                return (cell & ~tileMask) | next;
+            }
+        }
+        int x = getX(cell) + dx[dir];
+        int y = getY(cell) + dy[dir];
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return -1;
+        }
+        return index(x, y);
+    }
+
+    /**
+     * Returns whether the robot is known to be able to move between a square and its
+     * neighbour. This is known if either of the two squares has been recorded, which
+     * lets the target count as part of the map even though the robot never polls there.
+     * Sealed squares are treated as if they were walls.
+     *
+     * @param cell the index of the square
+     * @param dir the direction of the neighbour, 0 = NORTH to 3 = WEST
+     * @return the index of the neighbour if the way is known to be open, otherwise -1
+     */
+    public int openNeighbour(int cell, int dir) {
+        int next = neighbour(cell, dir);
+        if (next < 0 || (cells[next] & sealedBit) != 0) {
+            return -1;
+        }
+        if ((cells[cell] & visitedBit) != 0) {
+            return ((cells[cell] & (1 << dir)) != 0) ? next : -1;
+        }
+        if ((cells[next] & visitedBit) != 0) {
+            return ((cells[next] & (1 << ((dir + 2) % 4))) != 0) ? next : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Counts how many sides of a recorded square are open.
+     *
+     * @param cell the index of the square
+     * @return the number of open sides (0-4)
+     */
+    public int openExits(int cell) {
+        return Integer.bitCount(cells[cell] & 15);
+    }
+
+    /**
+     * Counts how many neighbours of a square are known to be reachable and not sealed.
+     *
+     * @param cell the index of the square
+     * @return the number of live exits (0-4)
+     */
+    public int liveExits(int cell) {
+        int exits = 0;
+        for (int dir = 0; dir < 4; dir++) {
+            if (openNeighbour(cell, dir) >= 0) {
+                exits++;
+            }
+        }
+        return exits;
+    }
+
+    /**
+     * Returns whether a square has been sealed off as part of a dead end.
+     *
+     * @param cell the index of the square
+     * @return {@code true} if the square is sealed
+     */
+    public boolean isSealed(int cell) { return (cells[cell] & sealedBit) != 0; }
+
+    /**
+     * Returns whether a side of a square is recorded as open.
+     *
+     * @param cell the index of the square
+     * @param dir the side, 0 = NORTH to 3 = WEST
+     * @return {@code true} if that side is open
+     */
+    public boolean hasSide(int cell, int dir) { return (cells[cell] & (1 << dir)) != 0; }
+
+    /**
+     * Unseals every square so the dead ends can be filled in again after the map changed.
+     */
+    public void clearSeals() {
+        for (int cell = 0; cell < cells.length; cell++) {
+            cells[cell] &= ~sealedBit;
+        }
+    }
+
+    /**
+     * Seals a square off so that it is treated as a wall from now on.
+     *
+     * @param cell the index of the square
+     */
+    public void seal(int cell) { cells[cell] |= sealedBit; }
+
+    /**
+     * Returns the absolute direction from one square to a neighbouring square.
+     *
+     * @param from the index of the square to move from
+     * @param to the index of the neighbouring square
+     * @return 0 = NORTH, 1 = EAST, 2 = SOUTH, 3 = WEST
+     */
+    public int directionTo(int from, int to) {
+        int ddx = getX(to) - getX(from);
+        int ddy = getY(to) - getY(from);
+        if (ddy < 0) return 0;
+        if (ddx > 0) return 1;
+        if (ddy > 0) return 2;
+        return 3;
+    }
+}
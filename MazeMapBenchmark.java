@@ -0,0 +1,128 @@
+import uk.ac.warwick.dcs.maze.logic.IMazeGenerator;
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.lang.reflect.Field;
+
+/**
+ * Compares GrandeFinale's {@link MazeMap} in Morton order with the same map kept
+ * row by row, timing the passes made over the whole map between runs.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//The map is filled in from a whole maze as if the robot had seen every square, then both
+//layouts go through the same passes: filling in the dead ends, the breadth first search
+//from the target that the replay planner starts with, walking the route back from the
+//start, and reading every square a column at a time, the way a robot going north or south
+//across a wide maze touches the map. Each pass is timed 5 times and the best time is kept.
+//The mazes come from the simulator's generators with their size set through their private
+//fields, PrimGenerator doubles the size it is given so 2000 makes a 4001 x 4001 maze
+//Compile together with MazeMap.java, DeadEndFiller.java and ReplayPlanner.java
+//Usage: java MazeMapBenchmark [size], -Dmaze.generator=<Prim | Loopy | Hill | Blank>, Prim by default
+
+public class MazeMapBenchmark {
+
+    /**
+     * Generates a maze and times every pass over its map in both layouts.
+     *
+     * @param args optionally the size to give the generator, 2000 by default
+     * @throws ReflectiveOperationException if the generator cannot be made that size
+     */
+    public static void main(String[] args) throws ReflectiveOperationException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        String name = System.getProperty("maze.generator", "Prim");
+        IMazeGenerator generator = (IMazeGenerator) Class.forName("uk.ac.warwick.dcs.maze.generators." + name + "Generator")
+                .getDeclaredConstructor().newInstance();
+        Class<?> type = generator.getClass();
+        if (type.getSuperclass() != Object.class) {
+            type = type.getSuperclass(); // LoopyGenerator keeps its size in PrimGenerator
+        }
+        for (String field : new String[]{"mazeWidth", "mazeHeight"}) {
+            Field f = type.getDeclaredField(field);
+            f.setAccessible(true);
+            f.setInt(generator, size);
+        }
+        Maze maze = generator.generateMaze();
+        System.out.println(name + " " + maze.getWidth() + " x " + maze.getHeight());
+        long[] rows = passes(maze, false);
+        long[] morton = passes(maze, true);
+        String[] names = {"learn every square", "fill dead ends", "distances to target", "route from start", "read by columns"};
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("%-20s row by row %6d ms, Morton %6d ms, %.2f times as fast%n",
+                    names[i], rows[i] / 1000000, morton[i] / 1000000, (double) rows[i] / morton[i]);
+        }
+    }
+
+    /**
+     * Times every pass over the map of a maze in one layout.
+     *
+     * @param maze the maze
+     * @param mortonOrder whether the map is in Morton order
+     * @return the best time of every pass in nanoseconds
+     */
+    private static long[] passes(Maze maze, boolean mortonOrder) {
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        int width = maze.getWidth();
+        int height = maze.getHeight();
+        long sink = 0; // Keeps the column reads from being optimised away
+        for (int i = 0; i < 5; i++) {
+            long startTime = System.nanoTime();
+            MazeMap map = new MazeMap(width, height, mortonOrder);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (maze.getCellType(x, y) != Maze.WALL) {
+                        map.learn(map.index(x, y), openSides(maze, x, y));
+                    }
+                }
+            }
+            best[0] = Math.min(best[0], System.nanoTime() - startTime);
+            int start = map.index(maze.getStart().x, maze.getStart().y);
+            int target = map.index(maze.getFinish().x, maze.getFinish().y);
+
+            startTime = System.nanoTime();
+            DeadEndFiller.fill(map, start, target);
+            best[1] = Math.min(best[1], System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            ReplayPlanner planner = new ReplayPlanner(map, target);
+            best[2] = Math.min(best[2], System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            int[] route = planner.routeFrom(start);
+            best[3] = Math.min(best[3], System.nanoTime() - startTime);
+            sink += (route == null) ? 0 : route.length;
+
+            startTime = System.nanoTime();
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    sink += map.sides(map.index(x, y));
+                }
+            }
+            best[4] = Math.min(best[4], System.nanoTime() - startTime);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        return best;
+    }
+
+    /**
+     * Works out which sides of a square of the maze are open.
+     *
+     * @param maze the maze
+     * @param x the x-coordinate of the square
+     * @param y the y-coordinate of the square
+     * @return a bit for every open side, bit 0 = NORTH to bit 3 = WEST
+     */
+    private static int openSides(Maze maze, int x, int y) {
+        int open = 0;
+        for (int dir = 0; dir < 4; dir++) {
+            int nx = x + MazeMap.dx[dir];
+            int ny = y + MazeMap.dy[dir];
+            if (nx >= 0 && ny >= 0 && nx < maze.getWidth() && ny < maze.getHeight() && maze.getCellType(nx, ny) != Maze.WALL) {
+                open |= 1 << dir;
+            }
+        }
+        return open;
+    }
+}
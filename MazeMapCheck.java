@@ -0,0 +1,120 @@
+import java.util.Random;
+
+/**
+ * Checks GrandeFinale's {@link MazeMap} in Morton order against the same map kept
+ * row by row, on fixed seeds.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//Both maps are filled from random mazes of every shape, square, long and thin, a single square
+//and sizes either side of the 64 square tiles, with some squares left unknown. Every index has
+//to be used once and map back to its square, every neighbour, sealed dead end and distance to
+//the target has to be the same square in both. Prints what disagreed and exits with status 1
+//Compile together with MazeMap.java, DeadEndFiller.java and ReplayPlanner.java
+//Usage: java -cp .:maze-environment.jar MazeMapCheck
+
+public class MazeMapCheck {
+
+    /**
+     * Fills maps in Morton order and row by row from random mazes of many shapes and
+     * compares every square, neighbour, dead end and distance.
+     *
+     * @param args not used
+     */
+    public static void main(String[] args) {
+        Random random = new Random(47);
+        int mazes = 0;
+        for (int[] size : new int[][]{{1, 1}, {2, 3}, {5, 5}, {64, 64}, {65, 64}, {64, 65}, {130, 7}, {7, 130}, {200, 129}}) {
+            mazes += checkMorton(size[0], size[1], random);
+        }
+        for (int i = 0; i < 40; i++) {
+            mazes += checkMorton(1 + random.nextInt(150), 1 + random.nextInt(150), random);
+        }
+        System.out.println("Morton map agrees with the row by row map on " + mazes + " mazes");
+    }
+
+    /**
+     * Compares both layouts on one random maze.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     * @param random where the walls come from
+     * @return 1, the number of mazes checked
+     */
+    private static int checkMorton(int width, int height, Random random) {
+        MazeMap rows = new MazeMap(width, height, false);
+        MazeMap morton = new MazeMap(width, height, true);
+        boolean[] used = new boolean[morton.size()];
+        String shape = width + " x " + height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int cell = morton.index(x, y);
+                expect(cell >= 0 && cell < morton.size() && !used[cell], "Morton index reused or out of range in " + shape, cell);
+                used[cell] = true;
+                expect(morton.getX(cell) == x && morton.getY(cell) == y && morton.rowIndex(cell) == rows.index(x, y),
+                        "Morton index does not map back in " + shape, cell);
+                for (int dir = 0; dir < 4; dir++) {
+                    int nx = x + MazeMap.dx[dir], ny = y + MazeMap.dy[dir];
+                    boolean inside = nx >= 0 && nx < width && ny >= 0 && ny < height;
+                    expect(morton.neighbour(cell, dir) == (inside ? morton.index(nx, ny) : -1)
+                            && rows.neighbour(rows.index(x, y), dir) == (inside ? rows.index(nx, ny) : -1),
+                            "wrong neighbour in " + shape, cell);
+                }
+            }
+        }
+        // Open every passage with some chance and learn both sides of it in both maps
+        int[] open = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x + 1 < width && random.nextInt(10) < 6) {
+                    open[y * width + x] |= 2;
+                    open[y * width + x + 1] |= 8;
+                }
+                if (y + 1 < height && random.nextInt(10) < 6) {
+                    open[y * width + x] |= 4;
+                    open[(y + 1) * width + x] |= 1;
+                }
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (random.nextInt(10) < 9) { // Some squares stay unknown
+                    rows.learn(rows.index(x, y), open[y * width + x]);
+                    morton.learn(morton.index(x, y), open[y * width + x]);
+                }
+            }
+        }
+        int startX = random.nextInt(width), startY = random.nextInt(height);
+        int targetX = random.nextInt(width), targetY = random.nextInt(height);
+        int sealedRows = DeadEndFiller.fill(rows, rows.index(startX, startY), rows.index(targetX, targetY));
+        int sealedMorton = DeadEndFiller.fill(morton, morton.index(startX, startY), morton.index(targetX, targetY));
+        expect(sealedRows == sealedMorton, "different number of dead ends sealed in " + shape, sealedMorton);
+        ReplayPlanner rowPlanner = new ReplayPlanner(rows, rows.index(targetX, targetY));
+        ReplayPlanner mortonPlanner = new ReplayPlanner(morton, morton.index(targetX, targetY));
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = rows.index(x, y), m = morton.index(x, y);
+                expect(rows.isSealed(r) == morton.isSealed(m) && rows.sides(r) == morton.sides(m)
+                        && rows.liveExits(r) == morton.liveExits(m), "square differs in " + shape, m);
+                expect(rowPlanner.distance(r) == mortonPlanner.distance(m), "distance to the target differs in " + shape, m);
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Stops the program with a message if a check failed.
+     *
+     * @param ok whether the check passed
+     * @param what what was checked
+     * @param where the step, square or count where it failed
+     */
+    private static void expect(boolean ok, String what, int where) {
+        if (!ok) {
+            System.out.println("Check failed: " + what + " (" + where + ")");
+            System.exit(1);
+        }
+    }
+}
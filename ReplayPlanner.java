@@ -0,0 +1,259 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the distance from every live square of a {@link MazeMap} to the target so
+ * the replay route can be repaired when the maze turns out to have changed, in the
+ * same spirit as D* Lite. The distances are worked out once with a breadth first
+ * search backwards from the target and are then only patched: a removed wall lowers
+ * distances outwards from the new opening, an added wall only re-settles the squares
+ * whose shortest way ran through it. A small change to the maze costs a small amount
+ * of work and the rest of the earlier search is reused.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class ReplayPlanner {
+    static final int unreachable = Integer.MAX_VALUE;
+    private MazeMap map;
+    private int target;
+    private int[] dist;
+    private byte[] state; // 0 settled, 1 waiting to be checked, 2 lost its way during a repair
+    private int[] work; // queue and stack space shared by the repairs
+    private long[] heap = new long[64]; // (distance << 32 | square) entries of the repair heap
+    private int heapSize;
+
+    /**
+     * Constructs a new {@code ReplayPlanner} and works out every distance to the target.
+     *
+     * @param map the known map, with its dead ends already filled in
+     * @param target the index of the target square
+     */
+    public ReplayPlanner(MazeMap map, int target) {
+        this.map = map;
+        this.target = target;
+        int n = map.size();
+        dist = new int[n];
+        state = new byte[n];
+        work = new int[n];
+        Arrays.fill(dist, unreachable);
+        dist[target] = 0;
+        int head = 0, tail = 0;
+        work[tail++] = target;
+        while (head < tail) {
+            int cell = work[head++];
+            for (int dir = 0; dir < 4; dir++) {
+                int next = map.openNeighbour(cell, dir);
+                if (next >= 0 && dist[next] == unreachable) {
+                    dist[next] = dist[cell] + 1;
+                    work[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how many moves the square is from the target through the known map.
+     *
+     * @param cell the index of the square
+     * @return the distance, or {@link #unreachable} if there is no known way
+     */
+    public int distance(int cell) { return dist[cell]; }
+
+    /**
+     * Builds the route from a square to the target by always stepping to a neighbour
+     * one move closer to the target.
+     *
+     * @param cell the index of the square to start from
+     * @return the indices of the squares on the route ending at the target,
+     *         or {@code null} if the target cannot be reached through the known map
+     */
+    public int[] routeFrom(int cell) {
+        if (dist[cell] == unreachable) {
+            return null;
+        }
+        int[] route = new int[dist[cell] + 1];
+        route[0] = cell;
+        for (int i = 1; i < route.length; i++) {
+            int current = route[i - 1];
+            for (int dir = 0; dir < 4; dir++) {
+                int next = map.openNeighbour(current, dir);
+                if (next >= 0 && dist[next] == dist[current] - 1) {
+                    route[i] = next;
+                    break;
+                }
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Patches the distances after a wall between two neighbouring squares was removed.
+     * Only squares that get closer to the target through the new opening are touched.
+     *
+     * @param a the index of one square
+     * @param b the index of the neighbouring square
+     */
+    public void edgeAdded(int a, int b) {
+        if (b < 0 || map.isSealed(a) || map.isSealed(b)) {
+            return;
+        }
+        int head = 0, tail = 0;
+        if (dist[a] != unreachable && dist[a] + 1 < dist[b]) {
+            dist[b] = dist[a] + 1;
+            work[tail++] = b;
+        } else if (dist[b] != unreachable && dist[b] + 1 < dist[a]) {
+            dist[a] = dist[b] + 1;
+            work[tail++] = a;
+        }
+        while (head < tail) {
+            int cell = work[head++];
+            for (int dir = 0; dir < 4; dir++) {
+                int next = map.openNeighbour(cell, dir);
+                if (next >= 0 && dist[cell] + 1 < dist[next]) {
+                    dist[next] = dist[cell] + 1;
+                    work[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Patches the distances after a wall appeared between two neighbouring squares.
+     * First every square whose shortest way to the target depended on that opening is
+     * found, these are the only squares whose distance can change. They are then given
+     * new distances from their still settled neighbours and settled again in order of
+     * distance, exactly like the last part of Dijkstra's algorithm.
+     *
+     * @param a the index of one square
+     * @param b the index of the neighbouring square
+     */
+    public void edgeRemoved(int a, int b) {
+        if (b < 0) {
+            return;
+        }
+        // Find the squares that lost every neighbour one move closer to the target
+        int top = 0;
+        for (int cell : new int[]{a, b}) {
+            if (state[cell] == 0) {
+                state[cell] = 1;
+                work[top++] = cell;
+            }
+        }
+        int[] lost = new int[16];
+        int lostCount = 0;
+        while (top > 0) {
+            int cell = work[--top];
+            if (cell == target || dist[cell] == unreachable || hasSupport(cell)) {
+                state[cell] = 0;
+                continue;
+            }
+            state[cell] = 2;
+            if (lostCount == lost.length) {
+                lost = Arrays.copyOf(lost, lostCount * 2);
+            }
+            lost[lostCount++] = cell;
+            for (int dir = 0; dir < 4; dir++) {
+                int next = map.openNeighbour(cell, dir);
+                if (next >= 0 && state[next] == 0 && dist[next] == dist[cell] + 1) {
+                    state[next] = 1;
+                    work[top++] = next;
+                }
+            }
+        }
+
+        // Give each of them the best distance offered by a settled neighbour
+        heapSize = 0;
+        for (int i = 0; i < lostCount; i++) {
+            int cell = lost[i];
+            dist[cell] = unreachable;
+            for (int dir = 0; dir < 4; dir++) {
+                int next = map.openNeighbour(cell, dir);
+                if (next >= 0 && state[next] == 0 && dist[next] != unreachable && dist[next] + 1 < dist[cell]) {
+                    dist[cell] = dist[next] + 1;
+                }
+            }
+            if (dist[cell] != unreachable) {
+                push(dist[cell], cell);
+            }
+        }
+
+        // Settle them closest first, passing the new distances on
+        while (heapSize > 0) {
+            long entry = pop();
+            int cell = (int) entry;
+            if (state[cell] != 2 || (int) (entry >>> 32) != dist[cell]) {
+                continue;
+            }
+            state[cell] = 0;
+            for (int dir = 0; dir < 4; dir++) {
+                int next = map.openNeighbour(cell, dir);
+                if (next >= 0 && state[next] == 2 && dist[cell] + 1 < dist[next]) {
+                    dist[next] = dist[cell] + 1;
+                    push(dist[next], next);
+                }
+            }
+        }
+        for (int i = 0; i < lostCount; i++) {
+            state[lost[i]] = 0;
+        }
+    }
+
+    /**
+     * Returns whether a square still has a settled neighbour one move closer to the target.
+     *
+     * @param cell the index of the square
+     * @return {@code true} if the square keeps its distance
+     */
+    private boolean hasSupport(int cell) {
+        for (int dir = 0; dir < 4; dir++) {
+            int next = map.openNeighbour(cell, dir);
+            if (next >= 0 && state[next] != 2 && dist[next] == dist[cell] - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a square to the repair heap.
+     *
+     * @param distance the distance of the square
+     * @param cell the index of the square
+     */
+    private void push(int distance, int cell) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        long entry = ((long) distance << 32) | cell;
+        int i = heapSize++;
+        while (i > 0 && heap[(i - 1) / 2] > entry) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = entry;
+    }
+
+    /**
+     * Removes the entry with the smallest distance from the repair heap.
+     *
+     * @return the removed entry
+     */
+    private long pop() {
+        long smallest = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= last) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return smallest;
+    }
+}
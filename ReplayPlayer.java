@@ -0,0 +1,96 @@
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.io.File;
+
+/**
+ * Plays a run of GrandeFinale recorded with {@code -Dmaze.record=<file>} again
+ * without the GUI, checking every decision against the recording.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//GrandeFinale makes all of its random choices from one seeded generator, so given the
+//same seed, the same maze and the same starting headings it makes exactly the same
+//decisions again. The player loads the maze saved next to the recording, checks it has
+//the recorded fingerprint, gives GrandeFinale the recorded seed and drives it with a
+//HeadlessRobot as fast as it can go. Every heading is compared with the recorded one and
+//the first difference is reported, so a slow or stuck run from the GUI can be repeated
+//as often as needed under a profiler
+//A run recorded with -Dmaze.heuristic=true has to be played with it set as well, a run
+//recorded while -Dmaze.library recognised the maze cannot be played again
+//Compile together with GrandeFinale.java and the files it is compiled with, and HeadlessRobot.java
+//Usage: java ReplayPlayer <recording> [repeats]
+
+public class ReplayPlayer {
+
+    /**
+     * Plays a recording, repeating it if asked, and prints how long every play took.
+     *
+     * @param args the recording file, then optionally how many times to play it
+     * @throws Exception if the recording or its maze cannot be read
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java ReplayPlayer <recording> [repeats]");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        int repeats = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        DecisionRecorder recording = DecisionRecorder.read(file);
+        Maze maze = new Maze(DecisionRecorder.mazeFile(file), null);
+        if (DecisionRecorder.fingerprint(maze) != recording.getFingerprint()) {
+            System.out.println("The maze next to the recording is not the recorded maze");
+            System.exit(2);
+        }
+        System.clearProperty("maze.record"); // Never record over the recording being played
+        System.clearProperty("maze.library"); // A library would change what the robot does on every play
+        System.setProperty("maze.seed", Long.toString(recording.getSeed()));
+        for (int i = 0; i < repeats; i++) {
+            if (i > 0) {
+                // A fresh maze, so robots of earlier plays have not shared what they found
+                maze = new Maze(DecisionRecorder.mazeFile(file), null);
+            }
+            long startTime = System.nanoTime();
+            boolean same = play(recording, maze);
+            long micros = (System.nanoTime() - startTime) / 1000;
+            System.out.println("Play " + (i + 1) + ": " + (same ? "same as recorded" : "different") + " in " + micros + " us");
+        }
+    }
+
+    /**
+     * Plays every run of a recording once with a new GrandeFinale.
+     *
+     * @param recording the recording
+     * @param maze the recorded maze
+     * @return {@code true} if every decision was the same as recorded
+     */
+    public static boolean play(DecisionRecorder recording, Maze maze) {
+        GrandeFinale controller = new GrandeFinale();
+        HeadlessRobot robot = new HeadlessRobot(maze);
+        for (int run = 0; run < recording.getRuns(); run++) {
+            int[] headings = recording.getHeadings(run);
+            robot.startRun(run, recording.getStartHeading(run));
+            for (int poll = 0; poll < headings.length; poll++) {
+                boolean moved = true;
+                try {
+                    controller.controlRobot(robot);
+                } catch (RuntimeException e) {
+                    // Like the simulator, a poll that throws does not move the robot
+                    moved = false;
+                }
+                if (robot.getHeading() != headings[poll]) {
+                    System.out.println("Run " + run + " poll " + poll + ": recorded heading "
+                            + headings[poll] + " but played " + robot.getHeading());
+                    return false;
+                }
+                if (moved) {
+                    robot.advance();
+                }
+            }
+            if (run < recording.getRuns() - 1 || robot.atTarget()) {
+                controller.reset();
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Finds the shortest route between two squares of a {@link MazeMap} using only
+ * squares the robot has already discovered. It runs a breadth first search from
+ * the start and from the target at the same time and stops when they meet, so it
+ * only has to look at roughly half the squares a single search would.
+ * Everything is kept in int arrays indexed by square so no objects are created
+ * per square.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class RouteRefiner {
+
+    /**
+     * Finds the shortest known route from the start square to the target square.
+     *
+     * @param map the squares discovered so far
+     * @param start the index of the start square
+     * @param target the index of the target square
+     * @return the indices of the squares on the route from start to target inclusive,
+     *         or {@code null} if the discovered squares do not connect them
+     */
+    public static int[] shortestRoute(MazeMap map, int start, int target) {
+        if (start == target) {
+            return new int[]{start};
+        }
+        int n = map.size();
+        int[] parent = new int[n];
+        int[] depth = new int[n]; // > 0 reached from the start, < 0 reached from the target
+        int[] startQueue = new int[n];
+        int[] targetQueue = new int[n];
+        int startHead = 0, startTail = 0, targetHead = 0, targetTail = 0;
+        startQueue[startTail++] = start;
+        targetQueue[targetTail++] = target;
+        depth[start] = 1;
+        depth[target] = -1;
+        parent[start] = -1;
+        parent[target] = -1;
+
+        int bestLength = Integer.MAX_VALUE;
+        int meetStart = -1, meetTarget = -1;
+        while (startHead < startTail && targetHead < targetTail && meetStart < 0) {
+            // Expand a whole level of the smaller frontier
+            boolean fromStart = (startTail - startHead) <= (targetTail - targetHead);
+            int[] queue = fromStart ? startQueue : targetQueue;
+            int head = fromStart ? startHead : targetHead;
+            int tail = fromStart ? startTail : targetTail;
+            int levelEnd = tail;
+            while (head < levelEnd) {
+                int cell = queue[head++];
+                for (int dir = 0; dir < 4; dir++) {
+                    int next = map.openNeighbour(cell, dir);
+                    if (next < 0) {
+                        continue;
+                    }
+                    if (depth[next] == 0) {
+                        depth[next] = fromStart ? depth[cell] + 1 : depth[cell] - 1;
+                        parent[next] = cell;
+                        queue[tail++] = next;
+                    } else if ((depth[next] > 0) != fromStart) {
+                        // The two searches meet, keep the shortest meeting of this level
+                        int length = Math.abs(depth[cell]) + Math.abs(depth[next]);
+                        if (length < bestLength) {
+                            bestLength = length;
+                            meetStart = fromStart ? cell : next;
+                            meetTarget = fromStart ? next : cell;
+                        }
+                    }
+                }
+            }
+            if (fromStart) {
+                startHead = head;
+                startTail = tail;
+            } else {
+                targetHead = head;
+                targetTail = tail;
+            }
+        }
+        if (meetStart < 0) {
+            return null;
+        }
+
+        int[] route = new int[bestLength];
+        int i = depth[meetStart] - 1;
+        for (int cell = meetStart; cell != -1; cell = parent[cell]) {
+            route[i--] = cell;
+        }
+        i = depth[meetStart];
+        for (int cell = meetTarget; cell != -1; cell = parent[cell]) {
+            route[i++] = cell;
+        }
+        return route;
+    }
+}
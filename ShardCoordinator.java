@@ -0,0 +1,473 @@
+import uk.ac.warwick.dcs.maze.logic.IMazeGenerator;
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates a controller on a folder of saved mazes by splitting the mazes into
+ * shards and handing them out to worker JVMs on the same machine.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//One SimulationRunner JVM holds every maze in flight and every controller instance on one
+//heap, so on the largest corpora it spends its time collecting garbage or runs out of heap.
+//The coordinator keeps nothing but the totals. It lists the .maze files in the corpus folder,
+//cuts the list into shards and starts one worker JVM per slot with the same class path, each
+//with its own heap and its own garbage collector. Every slot has a thread and a server socket
+//on the loopback address, the worker connects to it and is sent one shard at a time as a list
+//of maze files. The worker loads the controller once, solves the mazes one after another with
+//SimulationRunner.solve and streams the steps of every run back as soon as a maze is done,
+//then marks the end of the shard. The results of a shard are only added to the totals once
+//the whole shard is done, so if a worker dies or its socket breaks halfway the shard is put
+//back on the queue and the slot starts a new worker, and a shard that has killed 3 workers is
+//given up on. A slot whose workers die 3 times before finishing any shard gives up too. A worker
+//that sends no result for -Dmaze.mazeTimeout=<ms>, a minute by default, counts as dead and is
+//killed, so a controller stuck in a loop cannot hold a slot for ever. A maze file that cannot
+//be read is reported and left out of the totals
+//-Dmaze.workerHeap=<size> sets -Xmx of every worker. With -Dmaze.numa=<nodes> the workers are
+//started through numactl, slot i bound to the processors and memory of node i % nodes, so
+//every worker's heap stays on the node it runs on. -Dmaze.results=<file> also writes every run
+//to a CSV file as the results come in, with the maze's shortest distance, dead ends and
+//junctions from the worker's MazeResult, -1 and 0 unless -Dmaze.oracle=true, and whether the
+//run ended with the controller crashing. The workers also send the crashes, the polls that threw
+//and the first stack traces, so the report is the same as the runner's. Every other maze.*
+//property is passed on to the workers
+//-Dmaze.generate=<mazes> first saves that many mazes from -Dmaze.generator into the folder
+//Usage: java ShardCoordinator <controller.class | class name> <corpus folder> [workers] [shard size] [runs]
+
+public class ShardCoordinator {
+    private static final int maxAttempts = 3; // Workers a shard may kill before it is given up
+    private static final int maxStartFailures = 3; // Workers a slot may lose before finishing a shard
+    private static final int mazeTimeout = Integer.getInteger("maze.mazeTimeout", 60000); // ms a worker may take per maze
+    private static final int maxTrace = 16000; // Characters of a stack trace, writeUTF takes 65535 bytes
+    private final String controllerName;
+    private final int runs;
+    private final SimulationRunner totals;
+    private final LinkedBlockingQueue<Shard> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger remaining = new AtomicInteger(); // Shards neither done nor given up
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicInteger unreadable = new AtomicInteger(); // Mazes no worker could load
+    private final List<Shard> abandoned = new ArrayList<>();
+    private final PrintWriter results; // null unless maze.results is set
+
+    /**
+     * Constructs a new {@code ShardCoordinator}.
+     *
+     * @param controllerName the controller's class file or class name, as given to the workers
+     * @param controller the controller, loaded here only to check it and name it in the report
+     * @param runs how many runs of every maze to simulate
+     * @param results where to write every run, or {@code null}
+     */
+    public ShardCoordinator(String controllerName, CachedController controller, int runs, PrintWriter results) {
+        this.controllerName = controllerName;
+        this.runs = runs;
+        this.totals = new SimulationRunner(controller, 1, runs);
+        this.results = results;
+    }
+
+    /**
+     * Evaluates a controller on a corpus, or runs as a worker when started by a coordinator.
+     *
+     * @param args the controller, the corpus folder, then optionally the number of
+     *             workers, the mazes per shard and the runs per maze
+     * @throws Exception if the controller or the corpus cannot be loaded
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 4 && args[0].equals("--worker")) {
+            work(Integer.parseInt(args[1]), args[2], Integer.parseInt(args[3]));
+            return;
+        }
+        if (args.length < 2) {
+            System.out.println("Usage: java ShardCoordinator <controller.class | class name> <corpus folder> [workers] [shard size] [runs]");
+            System.exit(1);
+        }
+        int workers = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int shardSize = (args.length > 3) ? Integer.parseInt(args[3]) : 100;
+        int runs = (args.length > 4) ? Integer.parseInt(args[4]) : 2;
+        File corpus = new File(args[1]);
+        generate(corpus, Integer.getInteger("maze.generate", 0));
+        File[] mazes = corpus.listFiles((dir, name) -> name.endsWith(".maze"));
+        if (mazes == null || mazes.length == 0) {
+            System.out.println("No .maze files in " + corpus);
+            System.exit(2);
+        }
+        Arrays.sort(mazes);
+        String resultsFile = System.getProperty("maze.results");
+        PrintWriter results = (resultsFile == null) ? null : new PrintWriter(resultsFile);
+        if (results != null) {
+            results.println("maze,run,steps,shortest,solved,deadends,junctions,crashed");
+        }
+        ShardCoordinator coordinator = new ShardCoordinator(args[0], loadController(args[0]), runs, results);
+        coordinator.run(mazes, workers, shardSize);
+        if (results != null) {
+            results.close();
+        }
+    }
+
+    /**
+     * Loads a controller from its class file, or from the class path by class name.
+     *
+     * @param name the class file or class name
+     * @return the controller
+     * @throws Exception if it cannot be loaded
+     */
+    private static CachedController loadController(String name) throws Exception {
+        if (name.endsWith(".class")) {
+            return ControllerCache.load(new File(name));
+        }
+        return CachedController.of(Class.forName(name, true, ShardCoordinator.class.getClassLoader()));
+    }
+
+    /**
+     * Saves newly generated mazes into the corpus folder, numbered after the ones
+     * already there.
+     *
+     * @param corpus the corpus folder
+     * @param mazes how many mazes to generate, 0 for none
+     * @throws Exception if a maze cannot be saved
+     */
+    private static void generate(File corpus, int mazes) throws Exception {
+        if (mazes <= 0) {
+            return;
+        }
+        if (!corpus.isDirectory() && !corpus.mkdirs()) {
+            throw new IOException("Cannot create " + corpus);
+        }
+        IMazeGenerator generator = SimulationRunner.newGenerator();
+        String[] existing = corpus.list((dir, name) -> name.endsWith(".maze"));
+        int first = (existing == null) ? 0 : existing.length;
+        for (int i = first; i < first + mazes; i++) {
+            generator.generateMaze().writeToFile(new File(corpus, String.format("maze%07d.maze", i)), null);
+        }
+        System.out.println("Saved " + mazes + " mazes in " + corpus);
+    }
+
+    /**
+     * Splits the mazes into shards, evaluates them on the workers and prints a report.
+     *
+     * @param mazes the maze files
+     * @param workers how many worker JVMs to run at the same time
+     * @param shardSize how many mazes are in a shard
+     * @throws InterruptedException if the coordinator is interrupted while waiting
+     */
+    public void run(File[] mazes, int workers, int shardSize) throws InterruptedException {
+        long startTime = System.nanoTime();
+        for (int from = 0; from < mazes.length; from += shardSize) {
+            queue.add(new Shard(queue.size(), Arrays.copyOfRange(mazes, from, Math.min(mazes.length, from + shardSize))));
+        }
+        remaining.set(queue.size());
+        int shards = queue.size();
+        Thread[] slots = new Thread[Math.min(workers, shards)];
+        for (int slot = 0; slot < slots.length; slot++) {
+            int number = slot;
+            slots[slot] = new Thread(() -> serve(number), "shard-slot-" + slot);
+            slots[slot].start();
+        }
+        for (Thread slot : slots) {
+            slot.join();
+        }
+        long millis = (System.nanoTime() - startTime) / 1000000;
+        totals.report(mazes.length - unreadable.get(), millis);
+        System.out.println(shards + " shards on " + slots.length + " workers, " + retries.get() + " retried");
+        if (unreadable.get() > 0) {
+            System.err.println(unreadable.get() + " mazes could not be read and are not in the totals");
+        }
+        for (Shard shard : abandoned) {
+            System.out.println("Shard " + shard.number + " (" + shard.mazes[0].getName() + " on) was given up after "
+                    + shard.attempts + " attempts");
+        }
+        if (!queue.isEmpty()) {
+            System.out.println(queue.size() + " shards were never evaluated, every worker failed to start");
+        }
+    }
+
+    /**
+     * Keeps a worker running in one slot and feeds it shards until there are none
+     * left, starting a new worker whenever one dies.
+     *
+     * @param slot the number of the slot
+     */
+    private void serve(int slot) {
+        int startFailures = 0;
+        while (remaining.get() > 0 && startFailures < maxStartFailures) {
+            Shard shard = null;
+            Process process = null;
+            try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                server.setSoTimeout(60000); // A worker that has not connected within a minute is dead
+                process = launch(slot, server.getLocalPort());
+                try (Socket socket = server.accept();
+                     DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                     DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                    // Results come back a maze at a time, a worker that sends nothing for this long is stuck
+                    socket.setSoTimeout(mazeTimeout);
+                    while ((shard = next()) != null) {
+                        evaluate(shard, out, in);
+                        shard = null;
+                        startFailures = 0;
+                    }
+                    out.writeInt(-1); // No more shards, the worker exits
+                    out.flush();
+                }
+                process.waitFor(10, TimeUnit.SECONDS);
+            } catch (IOException e) {
+                System.err.println("Worker in slot " + slot + " failed" + ((shard == null) ? "" : " on shard " + shard.number) + ": " + e);
+                if (shard == null) {
+                    startFailures++;
+                } else {
+                    retry(shard);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                if (process != null) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the next shard off the queue, waiting while shards that are being
+     * evaluated elsewhere could still come back.
+     *
+     * @return the shard, or {@code null} once every shard is done or given up
+     * @throws InterruptedException if the slot is interrupted while waiting
+     */
+    private Shard next() throws InterruptedException {
+        while (remaining.get() > 0) {
+            Shard shard = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (shard != null) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends a shard to a worker and reads the result of every maze in it, adding them
+     * to the totals once the worker says the shard is done.
+     *
+     * @param shard the shard
+     * @param out the stream to the worker
+     * @param in the stream from the worker
+     * @throws IOException if the worker dies or the connection breaks
+     */
+    private void evaluate(Shard shard, DataOutputStream out, DataInputStream in) throws IOException {
+        shard.attempts++;
+        out.writeInt(shard.mazes.length);
+        for (File maze : shard.mazes) {
+            out.writeUTF(maze.getPath());
+        }
+        out.flush();
+        MazeResult[] done = new MazeResult[shard.mazes.length];
+        for (int index = in.readInt(); index >= 0; index = in.readInt()) {
+            MazeResult result = new MazeResult(runs);
+            result.shortest = in.readInt();
+            result.deadEnds = in.readInt();
+            result.junctions = in.readInt();
+            result.solvedRuns = in.readInt();
+            result.crashed = in.readBoolean();
+            result.pollErrors = in.readInt();
+            result.error = readTrace(in);
+            result.oracleError = readTrace(in);
+            for (int run = 0; run < runs; run++) {
+                result.steps[run] = in.readLong();
+            }
+            done[index] = result;
+            write(shard.mazes[index], result);
+        }
+        for (int index = 0; index < done.length; index++) {
+            if (done[index].solvedRuns < 0) {
+                // Not a run of the controller at all, so it stays out of the totals
+                unreadable.incrementAndGet();
+                System.err.println("Maze " + shard.mazes[index] + " could not be read, it is left out");
+            } else {
+                totals.record(done[index]);
+            }
+        }
+        remaining.decrementAndGet();
+    }
+
+    /**
+     * Puts a shard whose worker died back on the queue, or gives up on it once it
+     * has been tried {@link #maxAttempts} times.
+     *
+     * @param shard the shard
+     */
+    private void retry(Shard shard) {
+        if (shard.attempts < maxAttempts) {
+            retries.incrementAndGet();
+            queue.add(shard);
+            return;
+        }
+        synchronized (abandoned) {
+            abandoned.add(shard);
+        }
+        remaining.decrementAndGet();
+    }
+
+    /**
+     * Writes the runs of a maze to the results file, if there is one. A maze whose
+     * shard is retried is written again.
+     *
+     * @param maze the maze file
+     * @param result the steps of every run
+     */
+    private void write(File maze, MazeResult result) {
+        if (results == null) {
+            return;
+        }
+        synchronized (results) {
+            if (result.solvedRuns < 0) {
+                results.println(maze.getName() + ",,,,unreadable,,,");
+                return;
+            }
+            for (int run = 0; run < runs && run <= result.solvedRuns; run++) {
+                results.println(maze.getName() + "," + (run + 1) + "," + result.steps[run] + ","
+                        + result.shortest + "," + (run < result.solvedRuns) + "," + result.deadEnds + "," + result.junctions
+                        + "," + (result.crashed && run == result.solvedRuns));
+            }
+        }
+    }
+
+    /**
+     * Starts a worker JVM with the same class path, heap setting and maze properties,
+     * through numactl when the workers are spread over NUMA nodes.
+     *
+     * @param slot the number of the slot the worker runs in
+     * @param port the port the worker connects to
+     * @return the worker's process
+     * @throws IOException if the JVM cannot be started
+     */
+    private Process launch(int slot, int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        int nodes = Integer.getInteger("maze.numa", 1);
+        if (nodes > 1) {
+            int node = slot % nodes;
+            command.addAll(Arrays.asList("numactl", "--cpunodebind=" + node, "--membind=" + node));
+        }
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        String heap = System.getProperty("maze.workerHeap");
+        if (heap != null) {
+            command.add("-Xmx" + heap);
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("maze.") && !name.equals("maze.generate") && !name.equals("maze.results")) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), ShardCoordinator.class.getName(),
+                "--worker", String.valueOf(port), controllerName, String.valueOf(runs)));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    /**
+     * Runs as a worker: connects to the coordinator, then solves every shard it is
+     * sent and streams the result of each maze back, until it is told to stop.
+     *
+     * @param port the coordinator's port on the loopback address
+     * @param controllerName the controller's class file or class name
+     * @param runs how many runs of every maze to simulate
+     * @throws Exception if the controller cannot be loaded or the connection breaks
+     */
+    private static void work(int port, String controllerName, int runs) throws Exception {
+        CachedController controller = loadController(controllerName);
+        AtomicLong firstMove = new AtomicLong();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            for (int count = in.readInt(); count >= 0; count = in.readInt()) {
+                String[] mazes = new String[count];
+                for (int i = 0; i < count; i++) {
+                    mazes[i] = in.readUTF();
+                }
+                for (int i = 0; i < count; i++) {
+                    MazeResult result;
+                    try {
+                        Maze maze = new Maze(new File(mazes[i]), null);
+                        result = SimulationRunner.solve(controller, maze, runs, firstMove);
+                    } catch (Exception e) {
+                        System.err.println("Could not read " + mazes[i] + ": " + e);
+                        result = new MazeResult(runs);
+                        result.solvedRuns = -1; // Tells the coordinator the maze was never run
+                    }
+                    out.writeInt(i);
+                    out.writeInt(result.shortest);
+                    out.writeInt(result.deadEnds);
+                    out.writeInt(result.junctions);
+                    out.writeInt(result.solvedRuns);
+                    out.writeBoolean(result.crashed);
+                    out.writeInt(result.pollErrors);
+                    writeTrace(out, result.error);
+                    writeTrace(out, result.oracleError);
+                    for (int run = 0; run < runs; run++) {
+                        out.writeLong(result.steps[run]);
+                    }
+                    out.flush();
+                }
+                out.writeInt(-1); // The shard is done
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Sends a stack trace, or that there is none, cut short to fit in writeUTF.
+     *
+     * @param out the stream to the coordinator
+     * @param trace the stack trace, null if there is none
+     * @throws IOException if the connection breaks
+     */
+    private static void writeTrace(DataOutputStream out, String trace) throws IOException {
+        out.writeBoolean(trace != null);
+        if (trace != null) {
+            out.writeUTF((trace.length() > maxTrace) ? trace.substring(0, maxTrace) : trace);
+        }
+    }
+
+    /**
+     * Reads a stack trace sent by {@link #writeTrace}.
+     *
+     * @param in the stream from the worker
+     * @return the stack trace, null if there is none
+     * @throws IOException if the worker dies or the connection breaks
+     */
+    private static String readTrace(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
+
+/**
+ * Some of the mazes of a corpus, handed to one worker at a time.
+ */
+class Shard {
+    final int number;
+    final File[] mazes;
+    int attempts = 0; // Workers it has been sent to
+
+    Shard(int number, File[] mazes) {
+        this.number = number;
+        this.mazes = mazes;
+    }
+}
@@ -0,0 +1,132 @@
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds what every robot exploring the same maze in this JVM at the same time has
+ * found, so several robots can explore at once and each one can avoid the parts
+ * another has already finished with. A map lasts for one session: robots join it at
+ * the start of their first run and leave it at the end, and once every robot has left
+ * the next first run starts a new, empty map, even in the same maze, as the maze may
+ * have been edited since. Every square is one int: the low four bits are the open sides, then
+ * a bit for visited and a bit for closed, meaning a robot has backtracked out of the
+ * square and found nothing past it. Bits are only ever added, each with a
+ * compare-and-set, so robots never wait for one another and never lose an update.
+ * Closed squares are only a preference, a robot still goes in when nothing else is left.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+class SharedMaze {
+    private static final int visitedBit = 16;
+    private static final int closedBit = 32;
+    private static final AtomicReference<SharedMaze> current = new AtomicReference<>();
+    private final Maze maze;
+    private final AtomicIntegerArray cells;
+    private final AtomicInteger explorers = new AtomicInteger(1); // Robots in their first run
+
+    /**
+     * Constructs an empty {@code SharedMaze} for a maze.
+     *
+     * @param maze the maze being explored
+     * @param size the number of squares in the maze
+     */
+    private SharedMaze(Maze maze, int size) {
+        this.maze = maze;
+        cells = new AtomicIntegerArray(size);
+    }
+
+    /**
+     * Joins the shared map of the robots exploring a maze right now, starting a new
+     * one if nobody is exploring it. Only the latest session is kept. Every robot
+     * that joins has to {@link #leave()} once its first run is over.
+     *
+     * @param maze the maze the robot is in
+     * @param size the number of squares in the maze
+     * @return the map shared by every robot exploring that maze
+     */
+    public static SharedMaze join(Maze maze, int size) {
+        while (true) {
+            SharedMaze shared = current.get();
+            if (shared != null && shared.maze == maze) {
+                int count = shared.explorers.get();
+                if (count > 0) {
+                    if (shared.explorers.compareAndSet(count, count + 1)) {
+                        return shared;
+                    }
+                    continue; // Another robot joined or left at the same time
+                }
+            }
+            SharedMaze fresh = new SharedMaze(maze, size);
+            if (current.compareAndSet(shared, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    /**
+     * Leaves the session, once the robot's first run is over or it moves on to a new
+     * maze. When the last robot leaves, the map is never joined again.
+     */
+    public void leave() {
+        explorers.decrementAndGet();
+    }
+
+    /**
+     * Records that a robot has stood on a square and which sides of it are open.
+     *
+     * @param cell the index of the square
+     * @param open a bit for every open side, bit 0 = NORTH to bit 3 = WEST
+     */
+    public void publish(int cell, int open) { mark(cell, (open & 15) | visitedBit); }
+
+    /**
+     * Records that a robot has backtracked out of a square with nothing left past it.
+     *
+     * @param cell the index of the square
+     */
+    public void close(int cell) {
+        if (cell >= 0) {
+            mark(cell, closedBit);
+        }
+    }
+
+    /**
+     * Returns whether some robot has closed a square off.
+     *
+     * @param cell the index of the square, or -1 for outside the maze
+     * @return {@code true} if the square is closed
+     */
+    public boolean isClosed(int cell) { return cell >= 0 && (cells.get(cell) & closedBit) != 0; }
+
+    /**
+     * Copies every square other robots have stood on into a robot's own map.
+     *
+     * @param map the robot's own map
+     */
+    public void teach(MazeMap map) {
+        for (int cell = 0; cell < cells.length(); cell++) {
+            int state = cells.get(cell);
+            if ((state & visitedBit) != 0) {
+                map.learn(cell, state);
+            }
+        }
+    }
+
+    /**
+     * Adds bits to a square, trying again if another robot changed it at the same time.
+     *
+     * @param cell the index of the square
+     * @param bits the bits to add
+     */
+    private void mark(int cell, int bits) {
+        int old;
+        do {
+            old = cells.get(cell);
+            if ((old & bits) == bits) {
+                return;
+            }
+        } while (!cells.compareAndSet(cell, old, old | bits));
+    }
+}
@@ -0,0 +1,102 @@
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Checks GrandeFinale's {@link SharedMaze} against the same marks done one after
+ * another, on fixed seeds.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//Several threads mark a crowded corner of one shared map at once, so they keep colliding on
+//the same squares, and the map has to end up as the OR of every mark done on one thread. A
+//second robot joining has to get the same map, and once every robot has left a new session
+//has to get a new one. Prints what disagreed and exits with status 1
+//Compile together with SharedMaze.java and MazeMap.java
+//Usage: java -cp .:maze-environment.jar SharedMazeCheck
+
+public class SharedMazeCheck {
+    private static final int threads = 4;
+
+    /**
+     * Marks a shared map from several threads at once and compares it with the same
+     * marks ORed together on one thread, then checks that sessions are kept apart.
+     *
+     * @param args not used
+     * @throws InterruptedException if the main thread is interrupted while the threads run
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int width = 97, height = 89, marks = 100000;
+        Maze maze = new Maze(width, height);
+        SharedMaze shared = SharedMaze.join(maze, width * height);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Random random = new Random(thread);
+                for (int i = 0; i < marks; i++) {
+                    int cell = random.nextInt(width * height / 8); // Crowded, so the threads collide
+                    if (random.nextInt(4) == 0) {
+                        shared.close(cell);
+                    } else {
+                        shared.publish(cell, random.nextInt(16));
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        int[] sides = new int[width * height];
+        boolean[] visited = new boolean[width * height];
+        boolean[] closed = new boolean[width * height];
+        for (int thread = 0; thread < threads; thread++) {
+            Random random = new Random(thread);
+            for (int i = 0; i < marks; i++) {
+                int cell = random.nextInt(width * height / 8);
+                if (random.nextInt(4) == 0) {
+                    closed[cell] = true;
+                } else {
+                    sides[cell] |= random.nextInt(16);
+                    visited[cell] = true;
+                }
+            }
+        }
+        MazeMap map = new MazeMap(width, height);
+        shared.teach(map);
+        for (int cell = 0; cell < width * height; cell++) {
+            expect(map.isVisited(cell) == visited[cell] && (!visited[cell] || map.sides(cell) == sides[cell]),
+                    "shared square lost a mark", cell);
+            expect(shared.isClosed(cell) == closed[cell], "shared square lost its closed mark", cell);
+        }
+        expect(SharedMaze.join(maze, width * height) == shared, "second robot got a new map", 0);
+        shared.leave();
+        shared.leave();
+        expect(SharedMaze.join(maze, width * height) != shared, "a finished session was joined again", 0);
+        System.out.println("Shared map agrees with " + threads * marks + " marks done one after another");
+    }
+
+    /**
+     * Stops the program with a message if a check failed.
+     *
+     * @param ok whether the check passed
+     * @param what what was checked
+     * @param where the step, square or count where it failed
+     */
+    private static void expect(boolean ok, String what, int where) {
+        if (!ok) {
+            System.out.println("Check failed: " + what + " (" + where + ")");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,485 @@
+import uk.ac.warwick.dcs.maze.logic.IMazeGenerator;
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import uk.ac.warwick.dcs.maze.logic.Maze;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Runs a large number of headless simulations of one of the controllers
+ * (Ex1, Ex2, Ex3 or GrandeFinale) at the same time, one task per simulation.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//The simulator runs every controller on its own ControllerThread and only one maze at a
+//time, which is fine for watching a robot but far too heavy for trying a controller on
+//thousands of mazes. This runner loads the controller class file through the
+//ControllerCache and drives it directly with a HeadlessRobot, so no events or repaints
+//are involved. Every simulation is a task, on Java 21 and later each task gets a virtual
+//thread so 100,000 small mazes can be in flight at once, on older versions the tasks share
+//a fixed pool of threads instead. Mazes are generated on the main thread and handed out
+//through a semaphore, so the main thread waits whenever the limit of simulations in flight
+//is reached instead of filling the heap with mazes nobody is solving yet
+//A controller can also offer planMoves(IRobot), returning several absolute headings at once.
+//The runner then applies the whole plan in one loop and counts the steps once for the plan,
+//and only polls controlRobot again when the plan ends or a move in it is blocked
+//Short batch runs spend most of their time starting up. If the controller is given as a
+//class name instead of a class file it is loaded from the class path, which lets a class
+//data sharing archive hold it: run once with -XX:ArchiveClassesAtExit=maze.jsa and from
+//then on with -XX:SharedArchiveFile=maze.jsa, with the controller and this runner in jars
+//as the archive does not take classes from directories. The simulator jar has to be a copy
+//without its manifest, whose Class-Path of . stops the archive being written
+//-Dmaze.warmup=<mazes> solves that many mazes first, before anything is measured, so the
+//classes are linked and the hot methods are compiled by the time the real runs start
+//With -Dmaze.oracle=true every maze is also solved by the PathOracle, and for every run the
+//report gives the steps taken divided by the true shortest distance, so a replay that is not the
+//shortest route or a first run that wanders shows up straight away. The oracle also counts the
+//exits of every square with the ExitKernels, and the report gives the dead ends and junctions of
+//an average maze. It runs on the same tasks as the controller and its time is part of the batch,
+//so it is off by default and the batch times the controller alone. A maze the oracle throws on
+//is still solved by the controller, it is counted apart and left out of the comparison
+//-Dmaze.generator=<Prim | Loopy | Hill | Blank> picks the simulator's generator for the mazes,
+//Prim by default
+//A poll that throws does not move the robot, as in the simulator, and a controller that throws
+//anywhere else ends its maze, which is counted as crashed rather than unsolved. The report gives
+//both counts and the stack trace of the first exception. An Error such as running out of heap is
+//not caught: no more mazes are started and the runner stops with it once the report is printed
+//When -Dmaze.pollBudget or -Dmaze.timeBudget is set, a controller without a watchdog of its own
+//(no isOverrun() method, so every one but GrandeFinale) gets a PollWatchdog polled in front of it.
+//Once a run goes over its budget the controller is not polled again until the run ends and the
+//watchdog's Tremaux walk takes the robot to the target. Moves from a plan are not counted by it,
+//a controller that plans keeps its own watchdog. Compile together with PollWatchdog.java and
+//TremauxWalker.java
+//The oracle brings in ExitKernels. VectorExitKernels.java only compiles with --add-modules
+//jdk.incubator.vector, so leave it out of the javac command line without that flag
+//Usage: java SimulationRunner <controller.class | class name> [simulations] [in flight] [runs]
+
+public class SimulationRunner {
+    static final boolean ORACLE = Boolean.getBoolean("maze.oracle"); // Compare with the shortest route
+    private final CachedController controller;
+    private final int runs; // Runs of every maze, the first one explores
+    private final Semaphore permits; // One permit per simulation allowed in flight
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger solved = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger crashed = new AtomicInteger(); // Mazes the controller threw out of
+    private final AtomicLong pollErrors = new AtomicLong();
+    private final AtomicReference<String> firstError = new AtomicReference<>();
+    private final AtomicReference<Error> fatal = new AtomicReference<>(); // Stops the batch
+    private final AtomicLong steps = new AtomicLong();
+    private final AtomicInteger measured = new AtomicInteger(); // Mazes the oracle solved
+    private final AtomicInteger oracleFailures = new AtomicInteger();
+    private final AtomicReference<String> firstOracleError = new AtomicReference<>();
+    private final AtomicLong deadEnds = new AtomicLong(); // Summed over every maze the oracle solved
+    private final AtomicLong junctions = new AtomicLong();
+    private final AtomicLong firstMove = new AtomicLong(); // Time of the first move, 0 until then
+    private final DoubleAdder[] ratios; // Steps over the shortest distance, summed for every run
+    private final AtomicIntegerArray shortestRuns; // Runs that took exactly the shortest route
+    private final AtomicIntegerArray solvedRuns; // Runs that reached the target
+    private final AtomicIntegerArray measuredRuns; // Solved runs with a shortest distance to compare
+    private int peakInFlight = 0;
+    private long peakHeap = 0;
+
+    /**
+     * Constructs a new {@code SimulationRunner} for a controller.
+     *
+     * @param controller the controller, with a public no argument constructor
+     * @param maxInFlight how many simulations may be running at the same time
+     * @param runs how many runs of every maze to simulate
+     */
+    public SimulationRunner(CachedController controller, int maxInFlight, int runs) {
+        this.controller = controller;
+        this.runs = runs;
+        this.permits = new Semaphore(maxInFlight);
+        ratios = new DoubleAdder[runs];
+        for (int run = 0; run < runs; run++) {
+            ratios[run] = new DoubleAdder();
+        }
+        shortestRuns = new AtomicIntegerArray(runs);
+        solvedRuns = new AtomicIntegerArray(runs);
+        measuredRuns = new AtomicIntegerArray(runs);
+    }
+
+    /**
+     * Loads a controller class file and runs the simulations, then prints a report.
+     *
+     * @param args the class file, then optionally the number of simulations, the
+     *             limit of simulations in flight and the number of runs per maze
+     * @throws Exception if the controller cannot be loaded
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java SimulationRunner <controller.class | class name> [simulations] [in flight] [runs]");
+            System.exit(1);
+        }
+        int simulations = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+        int maxInFlight = (args.length > 2) ? Integer.parseInt(args[2]) : 10000;
+        int runs = (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+        CachedController controller;
+        if (args[0].endsWith(".class")) {
+            File classFile = new File(args[0]);
+            if (!classFile.exists()) {
+                System.out.println("File doesn't exist");
+                System.exit(2);
+            }
+            controller = ControllerCache.load(classFile);
+        } else {
+            // From the class path, so a class data sharing archive can hold the controller
+            controller = CachedController.of(Class.forName(args[0], true, SimulationRunner.class.getClassLoader()));
+        }
+        SimulationRunner runner = new SimulationRunner(controller, maxInFlight, runs);
+        runner.warmUp(Integer.getInteger("maze.warmup", 0));
+        runner.run(simulations);
+    }
+
+    /**
+     * Solves a few mazes one after another before anything is measured, so every
+     * class the controller needs is loaded and linked and its hot methods have been
+     * compiled by the time the measured simulations start. The results are thrown away.
+     *
+     * @param mazes how many mazes to solve, 0 to skip the warm-up
+     */
+    public void warmUp(int mazes) {
+        if (mazes <= 0) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        IMazeGenerator generator = newGenerator();
+        for (int i = 0; i < mazes; i++) {
+            simulate(generator.generateMaze());
+        }
+        System.out.println("Warm-up of " + mazes + " mazes took " + (System.nanoTime() - startTime) / 1000000 + " ms");
+        solved.set(0);
+        failed.set(0);
+        crashed.set(0);
+        pollErrors.set(0);
+        firstError.set(null);
+        steps.set(0);
+        measured.set(0);
+        oracleFailures.set(0);
+        firstOracleError.set(null);
+        deadEnds.set(0);
+        junctions.set(0);
+        for (int run = 0; run < runs; run++) {
+            ratios[run].reset();
+            shortestRuns.set(run, 0);
+            solvedRuns.set(run, 0);
+            measuredRuns.set(run, 0);
+        }
+    }
+
+    /**
+     * Runs the given number of simulations, each on a freshly generated maze, and
+     * prints how many were solved, the average number of steps and the heap used.
+     * If a simulation ends with an {@link Error} no more are started, and once the
+     * report is printed the error is thrown again.
+     *
+     * @param simulations how many simulations to run
+     * @throws InterruptedException if the main thread is interrupted while waiting
+     */
+    public void run(int simulations) throws InterruptedException {
+        IMazeGenerator generator = newGenerator();
+        long heapBefore = usedHeap();
+        long startTime = System.nanoTime();
+        ExecutorService executor = newExecutor();
+        for (int i = 0; i < simulations && fatal.get() == null; i++) {
+            Maze maze = generator.generateMaze();
+            permits.acquire(); // Back pressure, wait until a simulation finishes
+            int running = inFlight.incrementAndGet();
+            if (running > peakInFlight) {
+                peakInFlight = running;
+            }
+            if (i % 1000 == 0) {
+                peakHeap = Math.max(peakHeap, usedHeap());
+            }
+            executor.execute(() -> {
+                try {
+                    simulate(maze);
+                } catch (Error e) {
+                    fatal.compareAndSet(null, e);
+                } finally {
+                    inFlight.decrementAndGet();
+                    permits.release();
+                }
+            });
+        }
+        peakHeap = Math.max(peakHeap, usedHeap());
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.DAYS);
+        long millis = (System.nanoTime() - startTime) / 1000000;
+
+        long heapUsed = Math.max(0, peakHeap - heapBefore);
+        report(simulations, millis);
+        System.out.println("First move " + (firstMove.get() - ManagementFactory.getRuntimeMXBean().getStartTime())
+                + " ms after the JVM started");
+        System.out.println("Peak simulations in flight: " + peakInFlight);
+        System.out.println("Peak heap: " + (heapUsed / 1024) + " KB, about "
+                + ((peakInFlight == 0) ? 0 : heapUsed / peakInFlight) + " bytes per simulation in flight");
+        if (fatal.get() != null) {
+            throw fatal.get();
+        }
+    }
+
+    /**
+     * Prints how many mazes were solved, the average number of steps per run and, when
+     * the oracle is on, how close every run came to the shortest route.
+     *
+     * @param simulations how many mazes there were
+     * @param millis how long they took
+     */
+    void report(int simulations, long millis) {
+        int done = solved.get() + failed.get();
+        System.out.println(controller.getType().getName() + ": " + solved.get() + " of " + simulations + " solved in " + millis + " ms");
+        if (crashed.get() > 0 || pollErrors.get() > 0) {
+            System.out.println("The controller crashed on " + crashed.get() + " mazes and threw on "
+                    + pollErrors.get() + " polls, the first exception was:");
+            System.out.print(firstError.get());
+        }
+        System.out.println("Average steps per run: " + ((done == 0) ? 0 : steps.get() / ((long) done * runs)));
+        if (!ORACLE) {
+            return;
+        }
+        if (oracleFailures.get() > 0) {
+            System.out.println("The oracle failed on " + oracleFailures.get()
+                    + " mazes, which are left out below, the first exception was:");
+            System.out.print(firstOracleError.get());
+        }
+        int count = measured.get();
+        System.out.println("Average maze: " + ((count == 0) ? 0 : deadEnds.get() / count) + " dead ends and "
+                + ((count == 0) ? 0 : junctions.get() / count) + " junctions");
+        for (int run = 0; run < runs; run++) {
+            count = measuredRuns.get(run);
+            System.out.printf("Run %d: %.2f times the shortest route on average, %d of %d runs took it%n",
+                    run + 1, (count == 0) ? 0.0 : ratios[run].sum() / count, shortestRuns.get(run), count);
+        }
+    }
+
+    /**
+     * Simulates every run of one maze and adds the result to the totals.
+     *
+     * @param maze the maze to solve
+     */
+    private void simulate(Maze maze) {
+        record(solve(controller, maze, runs, firstMove));
+    }
+
+    /**
+     * Adds the result of one maze to the totals, whether it was simulated here or
+     * by another JVM.
+     *
+     * @param result the steps of every run of the maze
+     */
+    void record(MazeResult result) {
+        pollErrors.addAndGet(result.pollErrors);
+        if (result.error != null) {
+            firstError.compareAndSet(null, result.error);
+        }
+        if (result.oracleError != null) {
+            oracleFailures.incrementAndGet();
+            firstOracleError.compareAndSet(null, result.oracleError);
+        } else if (ORACLE) {
+            measured.incrementAndGet();
+            deadEnds.addAndGet(result.deadEnds);
+            junctions.addAndGet(result.junctions);
+        }
+        for (int run = 0; run < result.solvedRuns; run++) {
+            long taken = result.steps[run];
+            steps.addAndGet(taken);
+            solvedRuns.incrementAndGet(run);
+            if (result.shortest > 0) {
+                ratios[run].add((double) taken / result.shortest);
+                measuredRuns.incrementAndGet(run);
+            }
+            if (taken == result.shortest) {
+                shortestRuns.incrementAndGet(run);
+            }
+        }
+        if (result.crashed) {
+            crashed.incrementAndGet(); // Left out of the steps, the run never finished
+        } else if (result.solvedRuns < runs) {
+            steps.addAndGet(result.steps[result.solvedRuns]);
+            failed.incrementAndGet();
+        } else {
+            solved.incrementAndGet();
+        }
+    }
+
+    /**
+     * Simulates every run of one maze with a new controller instance. A run that
+     * takes more than 50 steps per square of the maze is counted as failed and no
+     * more runs are simulated. When the controller offers a plan of moves the plan is
+     * applied before polling it again. When a budget is set and the controller has no
+     * watchdog of its own, one is polled in front of it. When the oracle is on the shortest
+     * distance and the exits of the maze's squares come from it, before the controller is
+     * started, and an exception from the oracle is kept apart. An exception from the controller
+     * outside a poll ends the maze as crashed, an {@link Error} is thrown on.
+     *
+     * @param controller the controller
+     * @param maze the maze to solve
+     * @param runs how many runs to simulate
+     * @param firstMove set to the time of the first move if it is still 0
+     * @return the steps of every run
+     */
+    static MazeResult solve(CachedController controller, Maze maze, int runs, AtomicLong firstMove) {
+        MazeResult result = new MazeResult(runs);
+        if (ORACLE) {
+            try {
+                result.shortest = PathOracle.shortestDistance(maze);
+                int[] exits = PathOracle.exitCounts(maze);
+                result.deadEnds = exits[0] + exits[1];
+                result.junctions = exits[3] + exits[4];
+            } catch (RuntimeException e) {
+                // The controller's runs still count, there is just nothing to compare them with
+                result.shortest = -1;
+                result.oracleError = stackTrace(e);
+            }
+        }
+        try {
+            Object instance = controller.newInstance();
+            HeadlessRobot robot = new HeadlessRobot(maze);
+            PollWatchdog watchdog = (PollWatchdog.isEnabled() && !controller.hasWatchdog()) ? new PollWatchdog() : null;
+            long limit = 50L * maze.getWidth() * maze.getHeight();
+            for (int run = 0; run < runs; run++) {
+                robot.startRun(run);
+                if (watchdog != null) {
+                    watchdog.endRun();
+                }
+                long taken = 0;
+                while (!robot.atTarget() && taken < limit) {
+                    if (watchdog != null && watchdog.poll(robot)) {
+                        // Over the budget, the fallback finishes the run instead of the controller
+                        robot.setHeading(watchdog.fallbackHeading(robot));
+                        robot.advance();
+                        taken++;
+                        result.steps[run] = taken;
+                        continue;
+                    }
+                    int[] plan = controller.canPlan() ? controller.planMoves(instance, robot) : null;
+                    if (plan != null) {
+                        int moved = applyPlan(robot, plan);
+                        taken += moved;
+                        result.steps[run] = taken;
+                        if (moved == plan.length || robot.atTarget()) {
+                            continue;
+                        }
+                        // A move was blocked, let the controller see the wall itself
+                    }
+                    try {
+                        controller.controlRobot(instance, robot);
+                        if (firstMove.get() == 0) {
+                            firstMove.compareAndSet(0, System.currentTimeMillis());
+                        }
+                        robot.advance();
+                    } catch (RuntimeException e) {
+                        // Like the simulator, a poll that throws does not move the robot
+                        if (result.pollErrors++ == 0 && result.error == null) {
+                            result.error = stackTrace(e);
+                        }
+                    }
+                    taken++;
+                    result.steps[run] = taken;
+                }
+                if (!robot.atTarget()) {
+                    return result;
+                }
+                result.solvedRuns++;
+                controller.reset(instance);
+            }
+        } catch (Error e) {
+            throw e; // Out of heap or stack, nothing the batch reports after this could be trusted
+        } catch (Throwable e) {
+            // Only exceptions are left, the method handles just declare Throwable
+            result.crashed = true;
+            if (result.error == null) {
+                result.error = stackTrace(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stack trace of an exception as text, the way it would be printed.
+     *
+     * @param e the exception
+     * @return the stack trace
+     */
+    static String stackTrace(Throwable e) {
+        StringWriter text = new StringWriter();
+        e.printStackTrace(new PrintWriter(text));
+        return text.toString();
+    }
+
+    /**
+     * Applies a plan of moves until it runs out, a move is blocked or the target is reached.
+     *
+     * @param robot the robot to move
+     * @param plan the absolute headings to take one after another
+     * @return how many moves were made
+     */
+    private static int applyPlan(HeadlessRobot robot, int[] plan) {
+        int moved = 0;
+        while (moved < plan.length && !robot.atTarget()) {
+            robot.setHeading(plan[moved]);
+            if (!robot.advance()) {
+                break;
+            }
+            moved++;
+        }
+        return moved;
+    }
+
+    /**
+     * Creates the maze generator named by the {@code maze.generator} property, one of
+     * the simulator's generators without the Generator suffix, Prim if it is not set.
+     *
+     * @return the generator to make the mazes with
+     * @throws IllegalArgumentException if the simulator has no generator of that name
+     */
+    static IMazeGenerator newGenerator() {
+        String name = System.getProperty("maze.generator", "Prim");
+        try {
+            return (IMazeGenerator) Class.forName("uk.ac.warwick.dcs.maze.generators." + name + "Generator")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Unknown maze generator " + name, e);
+        }
+    }
+
+    /**
+     * Returns an executor that gives every task its own virtual thread when the
+     * running Java supports them, otherwise a fixed pool of one thread per processor.
+     *
+     * @return the executor to run the simulations on
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * Returns how much of the heap is in use right now.
+     *
+     * @return the used heap in bytes
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks Ex2's packed junction stack, which spills old chunks to disk, against a
+ * plain list of headings on fixed seeds.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//The stack is given windows of 1 to 3 chunks so it spills and pages back in all the time, and
+//is pushed and popped at random next to a list, with long runs of pushes so it goes many chunks
+//deep and long runs of pops so it comes all the way back. Every pop has to give the heading the
+//list gives, except in one run of pops in four, which removes junctions without reading them,
+//so the pushes that follow have to land in a chunk that remove paged back in. After every round the stack is reset or closed and used again, and once it is
+//closed its temp file has to be gone. Prints what disagreed and exits with status 1
+//Compile together with Ex2.java
+//Usage: java -cp .:maze-environment.jar SpillStackCheck
+
+@SuppressWarnings("auxiliaryclass") // RobotData stays in Ex2.java like every exercise's
+public class SpillStackCheck {
+
+    /**
+     * Runs the check.
+     *
+     * @param args not used
+     */
+    public static void main(String[] args) {
+        long operations = 0;
+        for (int window = 1; window <= 3; window++) {
+            Random random = new Random(window);
+            RobotData stack = new RobotData(window);
+            for (int round = 0; round < 6; round++) {
+                ArrayList<Integer> list = new ArrayList<>();
+                for (int burst = 0; burst < 40; burst++) {
+                    boolean pushing = random.nextInt(3) > 0;
+                    boolean peeking = random.nextInt(4) > 0;
+                    int length = random.nextInt(20000);
+                    for (int i = 0; i < length; i++, operations++) {
+                        if (pushing || list.isEmpty()) {
+                            int heading = 1000 + random.nextInt(4);
+                            stack.recordJunction(heading);
+                            list.add(heading);
+                        } else {
+                            int expected = list.remove(list.size() - 1);
+                            if (peeking) {
+                                expect(stack.getMostRecentJunction() == expected, "wrong heading popped", window, operations);
+                            }
+                            stack.removeMostRecentJunction();
+                        }
+                        expect(stack.getJunctionCounter() == list.size(), "wrong depth", window, operations);
+                    }
+                }
+                while (!list.isEmpty()) {
+                    expect(stack.getMostRecentJunction() == list.remove(list.size() - 1), "wrong heading popped", window, operations++);
+                    stack.removeMostRecentJunction();
+                }
+                expect(stack.getMostRecentJunction() == -1, "empty stack gave a heading", window, operations);
+                if (round % 2 == 0) {
+                    stack.resetJunctionCounter();
+                } else {
+                    stack.close();
+                    expect(spillFiles() == 0, "spill file left behind after close", window, operations);
+                }
+            }
+            stack.close();
+        }
+        expect(spillFiles() == 0, "spill file left behind after close", 0, operations);
+        System.out.println("Spilling stack agrees with a list on " + operations + " operations");
+    }
+
+    /**
+     * Counts the spill files in the temp directory.
+     *
+     * @return how many there are
+     */
+    private static int spillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list((dir, name) -> name.startsWith("ex2-junctions"));
+        return (names == null) ? 0 : names.length;
+    }
+
+    /**
+     * Stops the program with a message if a check failed.
+     *
+     * @param ok whether the check passed
+     * @param what what was checked
+     * @param window the chunks kept in memory
+     * @param operation how many operations had been done
+     */
+    private static void expect(boolean ok, String what, int window, long operation) {
+        if (!ok) {
+            System.out.println("Check failed: " + what + " with a window of " + window + " after " + operation + " operations");
+            System.exit(1);
+        }
+    }
+}
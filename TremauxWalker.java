@@ -0,0 +1,99 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+
+/**
+ * Finds the target with Tremaux's algorithm, marking every passage between two
+ * squares each time the robot walks it. Used by {@link PollWatchdog}, and by
+ * {@link WallFollower} when its random walks are capped, once their own strategy
+ * cannot be trusted to finish.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+public class TremauxWalker {
+    private static final int[] dx = {0, 1, 0, -1}; // NORTH, EAST, SOUTH, WEST
+    private static final int[] dy = {-1, 0, 1, 0};
+    private final int width;
+    private final byte[] marks; // Two bits for every side of every square, the times it was walked
+    private int lastCell = -1;
+
+    /**
+     * Constructs a new {@code TremauxWalker} with no passage marked.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     */
+    TremauxWalker(int width, int height) {
+        this.width = width;
+        marks = new byte[width * height];
+    }
+
+    /**
+     * Marks the passage the robot has just walked and chooses the next one.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     * @return the absolute heading to take
+     */
+    int heading(IRobot robot) {
+        int x = robot.getLocation().x;
+        int y = robot.getLocation().y;
+        int cell = y * width + x;
+        int entry = -1; // The side the robot came in through, -1 if it did not move
+        if (lastCell >= 0 && lastCell != cell) {
+            for (int dir = 0; dir < 4; dir++) {
+                if (lastCell == (y + dy[dir]) * width + x + dx[dir]) {
+                    entry = dir;
+                }
+            }
+        }
+        boolean oldSquare = false;
+        for (int dir = 0; dir < 4; dir++) {
+            oldSquare |= dir != entry && mark(cell, dir) > 0;
+        }
+        if (entry >= 0) {
+            walk(cell, entry);
+        }
+        lastCell = cell;
+        if (oldSquare && entry >= 0 && mark(cell, entry) == 1) {
+            return entry + IRobot.NORTH; // Back the way it came, closing the loop
+        }
+        int best = -1;
+        for (int dir = 0; dir < 4; dir++) {
+            int relative = ((dir + IRobot.NORTH - robot.getHeading() + 4) % 4) + IRobot.AHEAD;
+            if (robot.look(relative) == IRobot.WALL || mark(cell, dir) >= 2) {
+                continue;
+            }
+            // An unmarked passage first, then back the way it came, then any other
+            if (best < 0 || mark(cell, dir) < mark(cell, best)
+                    || (mark(cell, dir) == mark(cell, best) && dir == entry)) {
+                best = dir;
+            }
+        }
+        return ((best < 0) ? Math.max(entry, 0) : best) + IRobot.NORTH;
+    }
+
+    /**
+     * Returns how many times the passage through a side of a square has been walked.
+     *
+     * @param cell the index of the square
+     * @param dir the side, 0 = NORTH to 3 = WEST
+     * @return the mark, 0 to 2
+     */
+    private int mark(int cell, int dir) {
+        return (marks[cell] >> (2 * dir)) & 3;
+    }
+
+    /**
+     * Marks the passage through a side of a square and the same passage seen from
+     * the square on the other side, up to 2.
+     *
+     * @param cell the index of the square
+     * @param dir the side, 0 = NORTH to 3 = WEST
+     */
+    private void walk(int cell, int dir) {
+        if (mark(cell, dir) < 2) {
+            marks[cell] += (byte) (1 << (2 * dir));
+            int other = cell + dy[dir] * width + dx[dir];
+            marks[other] += (byte) (1 << (2 * ((dir + 2) % 4)));
+        }
+    }
+}
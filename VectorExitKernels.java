@@ -0,0 +1,116 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link ExitKernels} written with the incubating Vector API, working on as many
+ * words at once as the processor's preferred vectors hold.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+
+//Every neighbour bit set is two unaligned vector loads, shifted and ored together, so the body
+//of a run needs no lane crossing shuffles at all. The words near either end of the array, whose
+//neighbours a row away would be read from outside it, and the words left over after the last
+//whole vector are done by the scalar kernels
+//Compile and run with --add-modules jdk.incubator.vector, ExitKernels loads this class by name.
+//Without the flag this file does not compile, so leave it out and the scalar kernels are used
+
+public class VectorExitKernels extends ExitKernels {
+    private static final VectorSpecies<Long> species = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    public String name() { return "vector " + species.length() + " x 64"; }
+
+    @Override
+    public void count(long[] open, int stride, int from, int to, long[] ones, long[] twos, long[] fours) {
+        int low = Math.max(from, reachBack(stride));
+        int high = Math.min(to, open.length - reachOn(stride));
+        if (high - low < species.length()) {
+            super.count(open, stride, from, to, ones, twos, fours);
+            return;
+        }
+        super.count(open, stride, from, low, ones, twos, fours);
+        int word = low;
+        for (; word + species.length() <= high; word += species.length()) {
+            LongVector here = LongVector.fromArray(species, open, word);
+            LongVector a = here.and(shifted(open, word, 1));
+            LongVector b = here.and(shifted(open, word, -1));
+            LongVector c = here.and(shifted(open, word, stride));
+            LongVector d = here.and(shifted(open, word, -stride));
+            LongVector ab = a.lanewise(VectorOperators.XOR, b);
+            LongVector cd = c.lanewise(VectorOperators.XOR, d);
+            LongVector carry = ab.and(cd);
+            LongVector abCarry = a.and(b);
+            LongVector cdCarry = c.and(d);
+            ab.lanewise(VectorOperators.XOR, cd).intoArray(ones, word);
+            abCarry.lanewise(VectorOperators.XOR, cdCarry).lanewise(VectorOperators.XOR, carry).intoArray(twos, word);
+            abCarry.and(cdCarry).or(abCarry.and(carry)).or(cdCarry.and(carry)).intoArray(fours, word);
+        }
+        super.count(open, stride, word, to, ones, twos, fours);
+    }
+
+    @Override
+    public void classify(long[] open, int stride, int from, int to, long[] deadEnds, long[] junctions) {
+        int low = Math.max(from, reachBack(stride));
+        int high = Math.min(to, open.length - reachOn(stride));
+        if (high - low < species.length()) {
+            super.classify(open, stride, from, to, deadEnds, junctions);
+            return;
+        }
+        super.classify(open, stride, from, low, deadEnds, junctions);
+        int word = low;
+        for (; word + species.length() <= high; word += species.length()) {
+            LongVector here = LongVector.fromArray(species, open, word);
+            LongVector a = shifted(open, word, 1);
+            LongVector b = shifted(open, word, -1);
+            LongVector c = shifted(open, word, stride);
+            LongVector d = shifted(open, word, -stride);
+            LongVector two = a.and(b.or(c).or(d)).or(b.and(c.or(d))).or(c.and(d));
+            LongVector three = a.and(b).and(c.or(d)).or(c.and(d).and(a.or(b)));
+            here.and(two.not()).intoArray(deadEnds, word);
+            here.and(three).intoArray(junctions, word);
+        }
+        super.classify(open, stride, word, to, deadEnds, junctions);
+    }
+
+    /**
+     * Reads the squares {@code offset} squares on from a vector of words. Every word
+     * read has to be inside the array.
+     *
+     * @param open the open squares
+     * @param word the index of the first word
+     * @param offset how many squares on to read, negative to read back
+     * @return the squares, lane i holding those on from word {@code word + i}
+     */
+    private static LongVector shifted(long[] open, int word, int offset) {
+        int first = word + Math.floorDiv(offset, 64);
+        int shift = Math.floorMod(offset, 64);
+        LongVector bits = LongVector.fromArray(species, open, first).lanewise(VectorOperators.LSHR, shift);
+        if (shift == 0) {
+            return bits;
+        }
+        return bits.or(LongVector.fromArray(species, open, first + 1).lanewise(VectorOperators.LSHL, 64 - shift));
+    }
+
+    /**
+     * Returns how many words before a word the row above it can start.
+     *
+     * @param stride the bits per row
+     * @return the first word whose neighbours are all inside the array
+     */
+    private static int reachBack(int stride) {
+        return -Math.floorDiv(-stride, 64);
+    }
+
+    /**
+     * Returns how many words after a word the row below it can end.
+     *
+     * @param stride the bits per row
+     * @return how many words at the end of the array have neighbours outside it
+     */
+    private static int reachOn(int stride) {
+        return Math.floorDiv(stride, 64) + 1;
+    }
+}
@@ -0,0 +1,201 @@
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+
+// Wall follower preamble
+// Every other controller keeps a RobotData that grows as the robot moves, this one keeps a few
+// ints and flags and nothing else however big the maze is. While nothing is in the way the robot
+// heads straight for the target, taking any side that gets it closer. When every side that would
+// get it closer is a wall it picks a hand at random and follows the wall with that hand, counting
+// its turns, +1 for every right turn and -1 for every left turn. As in the Pledge algorithm it
+// only lets go of the wall when the count is back to 0, so it has gone round the obstacle rather
+// than circling back into it, and only if a square it has not been to leads closer to the target.
+// The target can be away from the wall entirely, for example across the far side of an island in
+// a loopy maze, where the Pledge algorithm alone could go round the same wall for ever. So the
+// square and heading of the first step along a wall are kept, and if the robot takes that step
+// again it has been all the way round and gives up on that wall. From a random point further
+// along it walks off a random way until it meets another wall, so it does not keep landing back
+// on the same one. On a maze without loops following one wall already visits every square.
+// The random walks off a lapped wall usually find the target, but nothing guarantees it. By default
+// a run gets as many of them as it needs, so the memory stays the same whatever the maze. Where a
+// bounded run matters more than the memory, -Dmaze.walkOffs=<walks> caps the walks of a run and
+// after that many the robot is steered by Tremaux's algorithm, which marks passages and always
+// reaches the target. Only in that mode does the memory grow with the maze, one byte per square
+// once the cap is reached. Compile together with TremauxWalker.java
+// It does not use getRuns() at all so every run is explored again from scratch
+
+/**
+ * Controls a robot with a fixed amount of memory by heading for the target and
+ * following walls with a turn counter, in the manner of the Pledge algorithm.
+ *
+ * @author Nevin Ahluwalia
+ * @version 1.0
+ */
+public class WallFollower {
+    private static final int maxWalkOffs = Integer.getInteger("maze.walkOffs", 0); // 0 for no cap and no fallback
+    private static final int[] leftHand = {IRobot.LEFT, IRobot.AHEAD, IRobot.RIGHT, IRobot.BEHIND};
+    private static final int[] rightHand = {IRobot.RIGHT, IRobot.AHEAD, IRobot.LEFT, IRobot.BEHIND};
+    private static final int[] leftTurns = {-1, 0, 1, 2}; // Turns counted for each way, for the left hand
+    private boolean following = false; // true while a hand is on a wall
+    private boolean lapped = false; // true once the robot has been all the way round the wall it is on
+    private boolean wandering = false; // true while walking away from a wall that was gone all the way round
+    private int hand = 1; // 1 = left hand on the wall, -1 = right hand
+    private int turns = 0; // Right turns minus left turns since the wall was met
+    private int blocked = IRobot.NORTH; // Absolute heading that was blocked when the wall was met
+    private int metX; // Square and heading the robot had when the wall was met
+    private int metY;
+    private int metHeading;
+    private int walkOffs = 0; // Random walks off a lapped wall so far this run
+    private TremauxWalker fallback; // Steers the rest of the run once a cap on the walks is used up
+
+    /**
+     * Main control method called by the maze simulator to choose the
+     * robots next move. Heads for the target when it can and follows
+     * a wall when it cannot.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     */
+    public void controlRobot(IRobot robot) {
+        if (fallback != null) {
+            robot.setHeading(fallback.heading(robot));
+            return;
+        }
+        if (wandering) {
+            if (robot.look(IRobot.AHEAD) != IRobot.WALL) {
+                return;
+            }
+            // Reached another wall, follow that one instead
+            wandering = false;
+            meetWall(robot, robot.getHeading());
+        } else if (!following) {
+            int heading = closerHeading(robot);
+            if (heading != 0) {
+                robot.setHeading(heading);
+                return;
+            }
+            // Every way closer is a wall, put a hand on it facing the way that was blocked
+            meetWall(robot, blocked);
+        }
+        if (followWall(robot)) {
+            lapped = true; // Back where the wall was met, the target is not along this wall
+        }
+        if (lapped && maxWalkOffs > 0 && walkOffs == maxWalkOffs) {
+            // The capped random walks have not found the target, finish deterministically
+            fallback = new TremauxWalker(robot.getMaze().getWidth(), robot.getMaze().getHeight());
+            robot.setHeading(fallback.heading(robot));
+        } else if (lapped && Math.random() < 0.125) {
+            // Walk off a random way from somewhere along the wall
+            walkOffs++;
+            following = false;
+            wandering = true;
+            do {
+                robot.face(IRobot.AHEAD + (int) (Math.random() * 4));
+            } while (robot.look(IRobot.AHEAD) == IRobot.WALL);
+        } else if (turns == 0 && closerPassage(robot)) {
+            // Gone round the obstacle like the Pledge algorithm, and a new square leads closer
+            following = false;
+        }
+    }
+
+    /**
+     * Resets the robot's state for a new run of the maze.
+     */
+    public void reset() {
+        following = false;
+        lapped = false;
+        wandering = false;
+        turns = 0;
+        walkOffs = 0;
+        fallback = null;
+    }
+
+    /**
+     * Puts a hand, chosen at random, on the wall the robot has run into and
+     * remembers where that happened so the robot can tell when it is back.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     * @param heading the absolute heading that ran into the wall
+     */
+    private void meetWall(IRobot robot, int heading) {
+        following = true;
+        hand = (Math.random() < 0.5) ? 1 : -1;
+        turns = 0;
+        lapped = false;
+        robot.setHeading(heading);
+        metX = robot.getLocation().x;
+        metY = robot.getLocation().y;
+        metHeading = -1; // Set after the first step along the wall
+    }
+
+    /**
+     * Finds a heading that takes the robot closer to the target without going into
+     * a wall, preferring the axis the target is furthest along. If there is none the
+     * heading that was blocked along that axis is remembered for following the wall.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     * @return an absolute heading that gets closer to the target, or 0 if every one is a wall
+     */
+    private int closerHeading(IRobot robot) {
+        int dx = robot.getTargetLocation().x - robot.getLocation().x;
+        int dy = robot.getTargetLocation().y - robot.getLocation().y;
+        int across = (dx > 0) ? IRobot.EAST : (dx < 0) ? IRobot.WEST : 0;
+        int down = (dy > 0) ? IRobot.SOUTH : (dy < 0) ? IRobot.NORTH : 0;
+        int first = (Math.abs(dx) >= Math.abs(dy)) ? across : down;
+        int second = (first == across) ? down : across;
+        if (first != 0 && lookAbsolute(robot, first) != IRobot.WALL) {
+            return first;
+        }
+        if (second != 0 && lookAbsolute(robot, second) != IRobot.WALL) {
+            return second;
+        }
+        blocked = first;
+        return 0;
+    }
+
+    /**
+     * Takes one step along the wall with the hand that is on it, trying the hand's
+     * side first, then ahead, then the other side and behind, and counts the turn made.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     * @return {@code true} if the step is the one taken when the wall was met, so the
+     *         robot has been all the way round the wall
+     */
+    private boolean followWall(IRobot robot) {
+        int[] directions = (hand == 1) ? leftHand : rightHand;
+        for (int i = 0; i < 4; i++) {
+            if (robot.look(directions[i]) != IRobot.WALL) {
+                robot.face(directions[i]);
+                turns += leftTurns[i] * hand; // A dead end turns away from the hand twice
+                break;
+            }
+        }
+        if (metHeading == -1) {
+            metHeading = robot.getHeading();
+            return false;
+        }
+        return robot.getLocation().x == metX && robot.getLocation().y == metY && robot.getHeading() == metHeading;
+    }
+
+    /**
+     * Returns whether a way that gets the robot closer to the target leads to a
+     * square it has not been to yet, so letting go of the wall is worth it.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     * @return {@code true} if there is an unvisited square closer to the target
+     */
+    private boolean closerPassage(IRobot robot) {
+        int keep = blocked;
+        int heading = closerHeading(robot);
+        blocked = keep;
+        return heading != 0 && lookAbsolute(robot, heading) == IRobot.PASSAGE;
+    }
+
+    /**
+     * Looks in an absolute direction rather than one relative to the robot's heading.
+     *
+     * @param robot the {@link IRobot} interface providing access to maze information
+     * @param heading the absolute direction to look in
+     * @return what is in that direction, {@code IRobot.WALL}, {@code PASSAGE} or {@code BEENBEFORE}
+     */
+    private int lookAbsolute(IRobot robot, int heading) {
+        return robot.look(((heading - robot.getHeading() + 4) % 4) + IRobot.AHEAD);
+    }
+}